@@ -3,7 +3,7 @@ package com.androdome.iadventure;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -18,17 +18,25 @@ import java.net.URLConnection;
 import java.net.UnknownHostException;
 
 import javax.net.ssl.SSLHandshakeException;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
 
 import org.fit.cssbox.css.CSSNorm;
 import org.fit.cssbox.css.DOMAnalyzer;
 import org.fit.cssbox.demo.DOMSource;
+import org.fit.cssbox.layout.BrowserCanvas;
 import org.w3c.dom.Document;
 
 import com.androdome.iadventure.appletutils.AppletManager;
 import com.androdome.iadventure.componentutils.ComponentManager;
+import com.androdome.iadventure.historyutils.CachedPage;
+import com.androdome.iadventure.historyutils.History;
+import com.androdome.iadventure.historyutils.HistoryEntry;
+import com.androdome.iadventure.historyutils.PageCache;
 
 public class ConnectionHandler
 {
+	private static final long DEFAULT_PAGE_CACHE_BUDGET = 64L * 1024L * 1024L;
 
 	public void navigateError(MainFrame frame, String string,
 			String errHtml) {
@@ -51,15 +59,16 @@ public class ConnectionHandler
 			// Parse the input document (replace this with your own parser)
 			DOMSource parser = new DOMSource(new ByteArrayInputStream(page
 					.getBytes("UTF-8")));
+			parser.setContentType("text/html; charset=utf-8");
 			Document doc = parser.parse();
 
 			DOMAnalyzer da = new DOMAnalyzer(doc, url);
 			da.attributesToStyles(); // convert the HTML presentation attributes
 										// to
 										// inline styles
-			da.addStyleSheet(null, CSSNorm.stdStyleSheet()); // use the standard
+			da.addStyleSheet(CSSNorm.stdStyles()); // use the standard
 																// style sheet
-			da.addStyleSheet(null, CSSNorm.userStyleSheet()); // use the
+			da.addStyleSheet(CSSNorm.userStyles()); // use the
 																// additional
 																// style sheet
 			da.getStyleSheets(); // load the author style sheets
@@ -81,7 +90,11 @@ public class ConnectionHandler
 		}
 	}
 
-	public static InputStream getSiteData(MainFrame frame, URL[] url)
+	/**
+	 * Opens the connection to the page. The final URL after redirects is stored to
+	 * <code>url[0]</code> and the received content type to <code>type[0]</code>.
+	 */
+	public static InputStream getSiteData(MainFrame frame, URL[] url, String[] type)
 			throws IOException, SSLHandshakeException {
 		
 		URLConnection con = url[0].openConnection();
@@ -98,26 +111,15 @@ public class ConnectionHandler
 		}
 		if(con instanceof HttpURLConnection)
 			url[0] = con.getURL();
+		type[0] = con.getContentType();
 		System.out.println(con.getURL());
-		frame.progressBar.setMaximum(Math.max(con.getContentLength(), in.available()));
-
-		ByteArrayOutputStream bytearr = new ByteArrayOutputStream();
-		byte[] buffer = new byte[1024];
+		int length = Math.max(con.getContentLength(), in.available());
 		frame.progressBar.setValue(0);
+		frame.progressBar.setMaximum(Math.max(length, 1));
+		frame.progressBar.setIndeterminate(length <= 0);
 		frame.lblProg.setText("Transferring from " + url[0].toString() + "...");
-		while ((in.read(buffer)) > 0)
-		{
-			
-			frame.progressBar.setValue(frame.progressBar.getValue()+1024);
-			frame.progressBar.repaint();
-			frame.progressBar.revalidate();
-			bytearr.write(buffer);
-			buffer = new byte[1024];
-		}
-		in.close();
-		frame.progressBar.setValue(frame.progressBar.getMaximum());
-		frame.progressBar.repaint();
-		return new ByteArrayInputStream(bytearr.toByteArray());
+		//the parser consumes the socket directly, progress is reported as it reads
+		return new ProgressInputStream(in, frame.progressBar);
 	}
 
 	public static URL make_url(final String a_url) throws MalformedURLException {
@@ -131,7 +133,101 @@ public class ConnectionHandler
 		return new URL("http://" + a_url);
 	}
 	CancelableThread ct = null;
+	History history = new History();
+	PageCache pageCache = new PageCache(getPageCacheBudget());
+	/** the history entry whose page is currently shown, null while loading or on errors */
+	HistoryEntry shownEntry = null;
+
+	private static long getPageCacheBudget() {
+		try
+		{
+			return Long.parseLong(PropertyManager.getProperty("history.cachesize", String.valueOf(DEFAULT_PAGE_CACHE_BUDGET)));
+		}
+		catch (NumberFormatException e)
+		{
+			e.printStackTrace();
+			return DEFAULT_PAGE_CACHE_BUDGET;
+		}
+	}
+
+	/**
+	 * Records the page shown at startup as the first history entry.
+	 */
+	public void setInitialPage(String location) {
+		shownEntry = history.visit(location);
+	}
+
 	public void navigate(final MainFrame frame, final String location) {
+		leavePage(frame);
+		HistoryEntry entry = history.visit(location);
+		pageCache.prune(history);
+		frame.updateHistoryButtons();
+		load(frame, location, entry);
+	}
+
+	public void goBack(MainFrame frame) {
+		if(!history.canGoBack())
+			return;
+		leavePage(frame);
+		show(frame, history.back());
+	}
+
+	public void goForward(MainFrame frame) {
+		if(!history.canGoForward())
+			return;
+		leavePage(frame);
+		show(frame, history.forward());
+	}
+
+	/**
+	 * Stops the pending load and the image loads of the shown page and keeps the page
+	 * in the back/forward cache.
+	 */
+	private void leavePage(MainFrame frame) {
+		if(ct != null)
+			ct.cancel();
+		frame.browser.cancelImages();
+		if(shownEntry != null && frame.browser.getViewport() != null)
+		{
+			BrowserCanvas browser = frame.browser;
+			pageCache.put(shownEntry, new CachedPage(browser.getRootElement(), browser.getDecoder(), browser.getBaseURL(), browser.getViewport(), frame.scrollPane.getSize()));
+		}
+		shownEntry = null;
+	}
+
+	/**
+	 * Shows a history entry, straight from the back/forward cache when possible.
+	 */
+	private void show(final MainFrame frame, final HistoryEntry entry) {
+		if(!SwingUtilities.isEventDispatchThread())
+		{
+			//the displayed box tree is laid out again in place, it must not be painted meanwhile
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					show(frame, entry);
+				}
+			});
+			return;
+		}
+		frame.updateHistoryButtons();
+		CachedPage page = pageCache.get(entry);
+		if(page == null)
+		{
+			load(frame, entry.getLocation(), entry);
+			return;
+		}
+		frame.clearComp();
+		frame.browser.restore(page.root, page.decoder, page.baseurl, page.viewport, page.size);
+		if(!page.size.equals(frame.scrollPane.getSize()))
+			frame.browser.relayout(frame.scrollPane.getSize());
+		AppletManager.parseApplets(frame.browser, frame);
+		ComponentManager.parseComponents(frame.browser, frame);
+		frame.navBar.setText(entry.getLocation());
+		frame.lblProg.setText("Done.");
+		shownEntry = entry;
+	}
+
+	private void load(final MainFrame frame, final String location, final HistoryEntry entry) {
 		if(ct != null)
 			ct.cancel();
 		ct = new CancelableThread() {
@@ -153,7 +249,8 @@ public class ConnectionHandler
 						return;
 					}
 					URL[] urlar = new URL[]{url};
-					InputStream is = getSiteData(frame, urlar);
+					String[] typear = new String[1];
+					InputStream is = getSiteData(frame, urlar, typear);
 					url = urlar[0];
 					frame.navBar.setText(url.toString());
 					frame.lblProg.setText("Parsing...");
@@ -161,27 +258,37 @@ public class ConnectionHandler
 					// Parse the input document (replace this with your own
 					// parser)
 					DOMSource parser = new DOMSource(is);
+					parser.setContentType(typear[0]);
 					if(cancelled)
 					{
 						is.close();
 						frame.lblProg.setText("Cancelled.");
 						return;
 					}
-					Document doc = parser.parse();
+					Document doc;
+					try
+					{
+						doc = parser.parse();
+					}
+					finally
+					{
+						is.close();
+					}
 
 					DOMAnalyzer da = new DOMAnalyzer(doc, url);
 					da.attributesToStyles(); // convert the HTML presentation
 												// attributes to
 												// inline styles
-					da.addStyleSheet(null, CSSNorm.stdStyleSheet()); // use the
+					da.addStyleSheet(CSSNorm.stdStyles()); // use the
 																		// standard
 																		// style
 																		// sheet
-					da.addStyleSheet(null, CSSNorm.userStyleSheet()); // use the
+					da.addStyleSheet(CSSNorm.userStyles()); // use the
 																		// additional
 																		// style
 																		// sheet
 					da.getStyleSheets(); // load the author style sheets
+					da.computeStyles(); // style large documents in parallel
 					// scrollPane.removeAll();
 
 					frame.lblProg.setText("Drawing...");
@@ -210,6 +317,8 @@ public class ConnectionHandler
 					frame.repaint();
 					frame.navBar.setText(url.toString());
 					frame.lblProg.setText("Done.");
+					entry.setLocation(url.toString());
+					shownEntry = entry;
 					ct = null;
 				}
 				catch (MalformedURLException e)
@@ -389,3 +498,62 @@ abstract class CancelableThread extends Thread
 	@Override
 	public abstract void run();
 }
+
+/**
+ * Counts the bytes pulled through the stream by the parser and reports them
+ * on the progress bar, so the page does not have to be buffered first.
+ */
+class ProgressInputStream extends FilterInputStream
+{
+	private final JProgressBar progressBar;
+	private int count = 0;
+
+	ProgressInputStream(InputStream in, JProgressBar progressBar)
+	{
+		super(in);
+		this.progressBar = progressBar;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		int b = super.read();
+		if(b != -1)
+			advance(1);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		int n = super.read(b, off, len);
+		if(n > 0)
+			advance(n);
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		long skipped = super.skip(n);
+		if(skipped > 0)
+			advance((int) skipped);
+		return skipped;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		super.close();
+		progressBar.setIndeterminate(false);
+		progressBar.setValue(progressBar.getMaximum());
+		progressBar.repaint();
+	}
+
+	private void advance(int n)
+	{
+		count += n;
+		if(!progressBar.isIndeterminate())
+			progressBar.setValue(Math.min(count, progressBar.getMaximum()));
+	}
+}
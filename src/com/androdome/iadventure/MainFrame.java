@@ -26,6 +26,7 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
 
 import java.awt.Color;
 import java.awt.event.AdjustmentEvent;
@@ -48,13 +49,14 @@ import org.fit.cssbox.demo.DOMSource;
 import org.fit.cssbox.layout.Box;
 import org.fit.cssbox.layout.BrowserCanvas;
 import org.fit.cssbox.layout.ElementBox;
+import org.fit.cssbox.layout.ImageCache;
 import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import com.androdome.iadventure.appletutils.ExtendedAppletContext;
+import com.androdome.iadventure.cacheutils.DiskCache;
 import com.androdome.iadventure.plugin.PluginManager;
 
 import java.awt.event.ActionListener;
@@ -62,10 +64,10 @@ import java.awt.event.ActionEvent;
 
 import javax.swing.JProgressBar;
 import javax.swing.border.EmptyBorder;
-import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.JMenuBar;
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
+import javax.swing.JCheckBoxMenuItem;
 
 public class MainFrame extends JFrame {
 
@@ -112,6 +114,9 @@ public class MainFrame extends JFrame {
 	JTextField navBar;
 	JLabel lblProg = new JLabel("Done.");
 	BrowserCanvas browser = null;
+	boolean parallelLayout = false;
+	JButton btnBackwards;
+	JButton btnForwards;
 	PluginManager manager = new PluginManager(this);
 	/**
 	 * Launch the application.
@@ -128,15 +133,36 @@ public class MainFrame extends JFrame {
 		{
 			e1.printStackTrace();
 		}
+		DiskCache.install();
+		configureImageCache();
+		// parse the default style sheets before the first page is loaded
+		CSSNorm.stdStyles();
+		CSSNorm.userStyles();
 		final MainFrame frame = new MainFrame();
 		frame.setVisible(true);
 		frame.init();
 		
 	}
 
+	/**
+	 * Sets the memory budget of the decoded images from the <code>images.cachesize</code> property (bytes).
+	 */
+	private static void configureImageCache() {
+		try
+		{
+			long budget = Long.parseLong(PropertyManager.getProperty("images.cachesize", String.valueOf(ImageCache.DEFAULT_BUDGET)));
+			ImageCache.getInstance().setBudget(budget);
+		}
+		catch (NumberFormatException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
 	//@SuppressWarnings("deprecation")
 	void clearComp() {
 		Thread.currentThread().setContextClassLoader(null);
+		boolean appletsStopped = false;
 		Component[] comps = browser.getComponents();
 		for (int i = 0; i < comps.length; i++)
 		{
@@ -151,18 +177,20 @@ public class MainFrame extends JFrame {
 						app.destroy();
 						a = null;
 						app = null;
-
+						appletsStopped = true;
 					}
 				}
 		}
-		try
-		{
-			Thread.sleep(1000L);
-		}
-		catch (InterruptedException e)
-		{
-			e.printStackTrace();
-		}
+		//give the applets some time to finish
+		if (appletsStopped)
+			try
+			{
+				Thread.sleep(1000L);
+			}
+			catch (InterruptedException e)
+			{
+				e.printStackTrace();
+			}
 
 		for (int i = 0; i < processPBinding.size(); i++)
 		{
@@ -225,17 +253,15 @@ public class MainFrame extends JFrame {
 		System.gc();
 	}
 
-	private DefaultMutableTreeNode createBoxTree(Box root) {
-		DefaultMutableTreeNode ret = new DefaultMutableTreeNode(root);
-		if (root instanceof ElementBox)
-		{
-			ElementBox el = (ElementBox) root;
-			for (int i = el.getStartChild(); i < el.getEndChild(); i++)
-			{
-				ret.add(createBoxTree(el.getSubBox(i)));
-			}
-		}
-		return ret;
+	/**
+	 * Finds the link target at the given page coordinates.
+	 * @return the href of the enclosing anchor or null if there is no link
+	 */
+	private String getLinkAt(int x, int y) {
+		ElementBox anchor = browser.getViewport().getBoxIndex().locateEnclosing(x, y, "a");
+		if (anchor != null && anchor.getElement().hasAttribute("href"))
+			return anchor.getElement().getAttribute("href");
+		return null;
 	}
 
 	private void init() {
@@ -248,26 +274,29 @@ public class MainFrame extends JFrame {
 
 			// Parse the input document (replace this with your own parser)
 			DOMSource parser = new DOMSource(is);
+			parser.setContentType(con.getContentType());
 			Document doc = parser.parse();
 
 			DOMAnalyzer da = new DOMAnalyzer(doc);
 			da.attributesToStyles(); // convert the HTML presentation attributes
 										// to
 										// inline styles
-			da.addStyleSheet(null, CSSNorm.stdStyleSheet()); // use the standard
+			da.addStyleSheet(CSSNorm.stdStyles()); // use the standard
 																// style sheet
-			da.addStyleSheet(null, CSSNorm.userStyleSheet()); // use the
+			da.addStyleSheet(CSSNorm.userStyles()); // use the
 																// additional
 																// style sheet
 			da.getStyleSheets();
 
 			browser = new BrowserCanvas(da.getRoot(), da, scrollPane.getSize(), url);
+			browser.setParallelLayout(parallelLayout);
 			browser.setLayout(null);
 			// browser.getViewport();
 			// browser.createLayout(new java.awt.Dimension(30,30));
 			// scrollPane.setBorder(new EtchedBorder());
 
 			scrollPane.setViewportView(browser);
+			conHandler.setInitialPage(url.toString());
 
 			addWindowFocusListener(new WindowFocusListener() {
 
@@ -327,18 +356,23 @@ public class MainFrame extends JFrame {
 
 						@Override
 						public void onInvokeLater() {
-							browser.createLayout(scrollPane.getSize());
-							for (int i = 0; i < componentBinding.size(); i++)
-							{
-								Box box = browser.getViewport().getElementBoxByNode(nodeBinding.get(i));
-								componentBinding.get(i).setLocation(box.getAbsoluteContentX(), box.getAbsoluteContentY());
-								componentBinding.get(i).setSize(box.getMinimalWidth(), box.getHeight());
-								componentBinding.get(i).validate();
-
-							}
-							appletCompChange();
-							browser.repaint();
-							browser.redrawBoxes();
+							//the displayed box tree is laid out again in place, it must not be painted meanwhile
+							SwingUtilities.invokeLater(new Runnable() {
+								public void run() {
+									browser.relayout(scrollPane.getSize());
+									for (int i = 0; i < componentBinding.size(); i++)
+									{
+										Box box = browser.getViewport().getElementBoxByNode(nodeBinding.get(i));
+										componentBinding.get(i).setLocation(box.getAbsoluteContentX(), box.getAbsoluteContentY());
+										componentBinding.get(i).setSize(box.getMinimalWidth(), box.getHeight());
+										componentBinding.get(i).validate();
+
+									}
+									appletCompChange();
+									browser.repaint();
+									browser.redrawBoxes();
+								}
+							});
 						}
 					};
 					invokeLater.start();
@@ -355,23 +389,10 @@ public class MainFrame extends JFrame {
 
 				@Override
 				public void mouseMoved(MouseEvent arg0) {
-					DefaultMutableTreeNode node = HtmlUtils.locateBox(createBoxTree(browser.getViewport()), arg0.getX(), arg0.getY());
-					if (node != null)
-					{
-						Box box = (Box) node.getUserObject();
-						if (box.getParent() != null && box.getParent().getNode().getNodeName().equalsIgnoreCase("a"))
-						{
-							NamedNodeMap attr = box.getParent().getNode().getAttributes();
-							if (attr.getNamedItem("href") != null)
-							{
-								browser.setCursor(new Cursor(Cursor.HAND_CURSOR));
-							}
-						}
-						else
-						{
-							browser.setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
-						}
-					}
+					if (getLinkAt(arg0.getX(), arg0.getY()) != null)
+						browser.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+					else
+						browser.setCursor(Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
 				}
 
 			});
@@ -380,20 +401,9 @@ public class MainFrame extends JFrame {
 
 				@Override
 				public void mouseClicked(MouseEvent arg0) {
-					DefaultMutableTreeNode node = HtmlUtils.locateBox(createBoxTree(browser.getViewport()), arg0.getX(), arg0.getY());
-					if (node != null)
-					{
-						Box box = (Box) node.getUserObject();
-						if (box.getParent() != null && box.getParent().getNode().getNodeName().equalsIgnoreCase("a"))
-						{
-							System.out.println("Yay!");
-							NamedNodeMap attr = box.getParent().getNode().getAttributes();
-							if (attr.getNamedItem("href") != null)
-							{
-								conHandler.navigate(MainFrame.this, browser.getBaseURL(), attr.getNamedItem("href").getNodeValue());
-							}
-						}
-					}
+					String href = getLinkAt(arg0.getX(), arg0.getY());
+					if (href != null)
+						conHandler.navigate(MainFrame.this, browser.getBaseURL(), href);
 				}
 
 				@Override
@@ -572,6 +582,16 @@ public class MainFrame extends JFrame {
 			}
 		});
 		mnProgram.add(mntmAbortAllThreads);
+
+		final JCheckBoxMenuItem mntmParallelLayout = new JCheckBoxMenuItem("Parallel layout");
+		mntmParallelLayout.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				parallelLayout = mntmParallelLayout.isSelected();
+				if (browser != null)
+					browser.setParallelLayout(parallelLayout);
+			}
+		});
+		mnProgram.add(mntmParallelLayout);
 		contentPane = new Panel();
 		contentPane.setLayout(new BorderLayout(0, 0));
 		setContentPane(contentPane);
@@ -632,7 +652,6 @@ public class MainFrame extends JFrame {
 
 		toolBar.add(btnHome);
 
-		JButton btnBackwards;
 		try
 		{
 			btnBackwards = new ImageButton("/btn/backwards");
@@ -647,6 +666,12 @@ public class MainFrame extends JFrame {
 			btnBackwards = new JButton("Backwards");
 			e3.printStackTrace();
 		}
+		btnBackwards.setEnabled(false);
+		btnBackwards.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				conHandler.goBack(MainFrame.this);
+			}
+		});
 		toolBar.add(btnBackwards);
 
 		JButton btnRefresh;
@@ -666,7 +691,6 @@ public class MainFrame extends JFrame {
 		}
 		toolBar.add(btnRefresh);
 
-		JButton btnForwards;
 		try
 		{
 			btnForwards = new ImageButton("/btn/forward");
@@ -681,6 +705,12 @@ public class MainFrame extends JFrame {
 			btnForwards = new JButton("Forwards");
 			e3.printStackTrace();
 		}
+		btnForwards.setEnabled(false);
+		btnForwards.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				conHandler.goForward(MainFrame.this);
+			}
+		});
 		toolBar.add(btnForwards);
 
 		JToolBar toolBar_1 = new JToolBar();
@@ -749,6 +779,11 @@ public class MainFrame extends JFrame {
 		panel.setLayout(new BorderLayout(0, 0));
 	}
 
+	void updateHistoryButtons() {
+		btnBackwards.setEnabled(conHandler.history.canGoBack());
+		btnForwards.setEnabled(conHandler.history.canGoForward());
+	}
+
 	public void addProcessNodeBinding(Process proc, Node node, Component comp) {
 		this.componentPBinding.add(comp);
 		this.processPBinding.add(proc);
@@ -12,7 +12,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
 
-import javax.imageio.ImageIO;
+import org.fit.cssbox.layout.ImageCache;
 
 public class ExtendedAppletContext implements AppletContext {
 
@@ -42,7 +42,7 @@ public class ExtendedAppletContext implements AppletContext {
 	public Image getImage(URL url) {
 		try
 		{
-			return ImageIO.read(url);
+			return ImageCache.getInstance().load(url, null);
 		}
 		catch (IOException e)
 		{
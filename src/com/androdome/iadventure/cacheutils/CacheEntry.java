@@ -0,0 +1,173 @@
+package com.androdome.iadventure.cacheutils;
+
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metadata of a single cached response. The body itself is stored in the cache
+ * directory under the SHA-1 of its content, so identical resources served from
+ * different URLs share one file.
+ */
+public class CacheEntry {
+	/** Heuristic freshness is capped at one day */
+	private static final long MAX_HEURISTIC_AGE = 24L * 60L * 60L * 1000L;
+
+	public final String url;
+	public final String hash;
+	public final long length;
+	public final String etag;
+	public final String lastModified;
+	public final String contentType;
+	public final String contentEncoding;
+	long expires;
+
+	CacheEntry(String url, String hash, long length, long expires, String etag, String lastModified, String contentType, String contentEncoding) {
+		this.url = url;
+		this.hash = hash;
+		this.length = length;
+		this.expires = expires;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.contentType = contentType;
+		this.contentEncoding = contentEncoding;
+	}
+
+	/**
+	 * @return <code>true</code> when the entry may be served without asking the server
+	 */
+	public boolean isFresh() {
+		return System.currentTimeMillis() < expires;
+	}
+
+	/**
+	 * @return <code>true</code> when the entry can be revalidated with a conditional request
+	 */
+	public boolean hasValidator() {
+		return etag != null || lastModified != null;
+	}
+
+	/**
+	 * Rebuilds the response headers that are handed to the URL connection when the
+	 * body is served from disk.
+	 */
+	Map<String, List<String>> getHeaders() {
+		Map<String, List<String>> headers = new HashMap<String, List<String>>();
+		headers.put(null, single("HTTP/1.1 200 OK"));
+		headers.put("Content-Length", single(String.valueOf(length)));
+		if(contentType != null)
+			headers.put("Content-Type", single(contentType));
+		if(contentEncoding != null)
+			headers.put("Content-Encoding", single(contentEncoding));
+		if(etag != null)
+			headers.put("ETag", single(etag));
+		if(lastModified != null)
+			headers.put("Last-Modified", single(lastModified));
+		return headers;
+	}
+
+	private static List<String> single(String value) {
+		List<String> list = new ArrayList<String>(1);
+		list.add(value);
+		return list;
+	}
+
+	//========================================================================
+
+	/**
+	 * Checks whether the response is allowed to be stored at all.
+	 */
+	static boolean isCacheable(URLConnection con) {
+		String cc = con.getHeaderField("Cache-Control");
+		if(cc != null && cc.toLowerCase().contains("no-store"))
+			return false;
+		String vary = con.getHeaderField("Vary");
+		if(vary != null && vary.trim().equals("*"))
+			return false;
+		return true;
+	}
+
+	/**
+	 * Computes the time until which a response stays fresh from its Cache-Control,
+	 * Expires and Last-Modified headers.
+	 */
+	static long computeExpires(URLConnection con) {
+		long now = System.currentTimeMillis();
+		String cc = con.getHeaderField("Cache-Control");
+		if(cc != null)
+		{
+			//all the directives are read first, no-cache wins over any max-age
+			boolean noCache = false;
+			boolean invalid = false;
+			long maxAge = -1;
+			for (String directive : cc.toLowerCase().split(","))
+			{
+				directive = directive.trim();
+				if(directive.equals("no-cache"))
+					noCache = true;
+				else if(directive.startsWith("max-age="))
+				{
+					try
+					{
+						long age = Long.parseLong(directive.substring(8).trim());
+						if(maxAge < 0 || age < maxAge)
+							maxAge = age;
+					}
+					catch (NumberFormatException e)
+					{
+						invalid = true;
+					}
+				}
+			}
+			if(noCache)
+				return now;
+			if(maxAge >= 0)
+				return now + maxAge * 1000L;
+			if(invalid)
+				return now;
+		}
+		if(con.getHeaderField("Expires") != null)
+		{
+			long expires = con.getHeaderFieldDate("Expires", -1);
+			if(expires <= 0)
+				return now;
+			//correct for the server clock
+			long date = con.getHeaderFieldDate("Date", now);
+			return now + (expires - date);
+		}
+		long modified = con.getHeaderFieldDate("Last-Modified", -1);
+		if(modified > 0 && modified < now)
+			return now + Math.min((now - modified) / 10, MAX_HEURISTIC_AGE);
+		return now;
+	}
+
+	//========================================================================
+
+	String toLine() {
+		return url + '\t' + hash + '\t' + length + '\t' + expires + '\t' + field(etag) + '\t' + field(lastModified) + '\t' + field(contentType) + '\t' + field(contentEncoding);
+	}
+
+	static CacheEntry fromLine(String line) {
+		String[] f = line.split("\t", -1);
+		if(f.length != 8)
+			return null;
+		try
+		{
+			return new CacheEntry(f[0], f[1], Long.parseLong(f[2]), Long.parseLong(f[3]), value(f[4]), value(f[5]), value(f[6]), value(f[7]));
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	private static String field(String value) {
+		return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ');
+	}
+
+	private static String value(String field) {
+		return field.length() == 0 ? null : field;
+	}
+}
@@ -0,0 +1,554 @@
+package com.androdome.iadventure.cacheutils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.CacheRequest;
+import java.net.CacheResponse;
+import java.net.HttpURLConnection;
+import java.net.ResponseCache;
+import java.net.URI;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.androdome.iadventure.PropertyManager;
+
+/**
+ * Persistent HTTP cache for the whole browser. It is installed as the default
+ * {@link ResponseCache}, so every HTTP connection goes through it: the page
+ * fetch, image loading and the style sheets downloaded by the CSS parser.<br><br>
+ * Bodies are stored under the SHA-1 of their content, the index maps URLs to
+ * them. Fresh entries are served straight from disk, stale ones are revalidated
+ * with If-None-Match/If-Modified-Since and a 304 is answered from disk. The
+ * total size is bounded, the least recently used entries are evicted first.
+ */
+public class DiskCache extends ResponseCache {
+
+	private static final String INDEX_NAME = "index";
+	private static final long DEFAULT_MAX_SIZE = 50L * 1024L * 1024L;
+
+	private final File dir;
+	private final File indexFile;
+	private final long maxSize;
+	private long size = 0;
+	/** access ordered, the eldest entry is evicted first */
+	private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(64, 0.75f, true);
+	private final HashMap<String, Integer> blobRefs = new HashMap<String, Integer>();
+
+	public DiskCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.indexFile = new File(dir, INDEX_NAME);
+		this.maxSize = maxSize;
+		if(!dir.exists())
+			dir.mkdirs();
+		loadIndex();
+	}
+
+	/**
+	 * Installs the cache under ./conf/cache as the default response cache. The size
+	 * limit in bytes is taken from the <code>cache.maxsize</code> property.
+	 */
+	public static void install() {
+		long max = DEFAULT_MAX_SIZE;
+		try
+		{
+			max = Long.parseLong(PropertyManager.getProperty("cache.maxsize", String.valueOf(DEFAULT_MAX_SIZE)));
+		}
+		catch (NumberFormatException e)
+		{
+			e.printStackTrace();
+		}
+		ResponseCache.setDefault(new DiskCache(new File("./conf/cache"), max));
+	}
+
+	//========================================================================
+
+	@Override
+	public CacheResponse get(URI uri, String rqstMethod, Map<String, List<String>> rqstHeaders) throws IOException {
+		if(!"GET".equals(rqstMethod) || !"http".equalsIgnoreCase(uri.getScheme()))
+			return null;
+		String key = uri.toString();
+		CacheEntry entry;
+		synchronized (this)
+		{
+			entry = entries.get(key);
+		}
+		if(entry == null)
+			return null;
+		File blob = getBlob(entry.hash);
+		if(!blob.exists())
+		{
+			remove(key);
+			return null;
+		}
+		if(entry.isFresh() && !isReloadRequest(rqstHeaders))
+			return new DiskResponse(entry, blob);
+		if(!entry.hasValidator())
+			return null;
+		return revalidate(uri, rqstHeaders, entry, blob);
+	}
+
+	@Override
+	public CacheRequest put(URI uri, URLConnection conn) throws IOException {
+		if(!(conn instanceof HttpURLConnection) || !"http".equalsIgnoreCase(uri.getScheme()))
+			return null;
+		HttpURLConnection http = (HttpURLConnection) conn;
+		if(!"GET".equals(http.getRequestMethod()) || !isStatusOk(http.getHeaderField(0)))
+			return null;
+		return createWriter(uri, http);
+	}
+
+	/**
+	 * Asks the server whether the stale entry is still valid. A 304 is served from
+	 * disk, a new 200 replaces the entry while it is being read.
+	 */
+	private CacheResponse revalidate(URI uri, Map<String, List<String>> rqstHeaders, CacheEntry entry, File blob) throws IOException {
+		HttpURLConnection con = (HttpURLConnection) uri.toURL().openConnection();
+		con.setUseCaches(false); //do not come back here
+		con.setInstanceFollowRedirects(false);
+		for (Map.Entry<String, List<String>> header : rqstHeaders.entrySet())
+		{
+			if(header.getKey() == null)
+				continue;
+			for (String value : header.getValue())
+				con.addRequestProperty(header.getKey(), value);
+		}
+		if(entry.etag != null)
+			con.setRequestProperty("If-None-Match", entry.etag);
+		if(entry.lastModified != null)
+			con.setRequestProperty("If-Modified-Since", entry.lastModified);
+
+		int code = con.getResponseCode();
+		if(code == HttpURLConnection.HTTP_NOT_MODIFIED)
+		{
+			con.getInputStream().close();
+			synchronized (this)
+			{
+				entry.expires = CacheEntry.computeExpires(con);
+				saveIndex();
+			}
+			return new DiskResponse(entry, blob);
+		}
+		else if(code == HttpURLConnection.HTTP_OK)
+		{
+			CacheWriter writer = createWriter(uri, con);
+			InputStream in = con.getInputStream();
+			if(writer != null)
+				in = new TeeInputStream(in, writer);
+			return new NetworkResponse(con.getHeaderFields(), in);
+		}
+		//let the connection do a normal request
+		con.disconnect();
+		remove(uri.toString());
+		return null;
+	}
+
+	private CacheWriter createWriter(URI uri, HttpURLConnection con) throws IOException {
+		if(!CacheEntry.isCacheable(con))
+			return null;
+		long expires = CacheEntry.computeExpires(con);
+		String etag = con.getHeaderField("ETag");
+		String lastModified = con.getHeaderField("Last-Modified");
+		if(expires <= System.currentTimeMillis() && etag == null && lastModified == null)
+			return null; //could never be used again
+		return new CacheWriter(uri.toString(), expires, etag, lastModified, con.getHeaderField("Content-Type"), con.getHeaderField("Content-Encoding"));
+	}
+
+	private static boolean isStatusOk(String status) {
+		if(status == null)
+			return false;
+		String[] parts = status.split(" ");
+		return parts.length > 1 && parts[1].equals("200");
+	}
+
+	private static boolean isReloadRequest(Map<String, List<String>> rqstHeaders) {
+		for (Map.Entry<String, List<String>> header : rqstHeaders.entrySet())
+		{
+			if(header.getKey() != null && (header.getKey().equalsIgnoreCase("Cache-Control") || header.getKey().equalsIgnoreCase("Pragma")))
+				for (String value : header.getValue())
+					if(value.toLowerCase().contains("no-cache"))
+						return true;
+		}
+		return false;
+	}
+
+	//========================================================================
+
+	private File getBlob(String hash) {
+		return new File(dir, hash);
+	}
+
+	/**
+	 * Stores a completely downloaded body and evicts old entries when the cache
+	 * grows over its limit.
+	 */
+	synchronized void commit(CacheEntry entry, File temp) {
+		if(entry.length > maxSize)
+		{
+			temp.delete();
+			return;
+		}
+		File blob = getBlob(entry.hash);
+		if(blob.exists())
+			temp.delete();
+		else if(!temp.renameTo(blob))
+		{
+			temp.delete();
+			return;
+		}
+		CacheEntry old = entries.remove(entry.url);
+		if(old != null)
+			release(old);
+		entries.put(entry.url, entry);
+		retain(entry);
+		trim();
+		saveIndex();
+	}
+
+	synchronized void remove(String url) {
+		CacheEntry old = entries.remove(url);
+		if(old != null)
+		{
+			release(old);
+			saveIndex();
+		}
+	}
+
+	private void retain(CacheEntry entry) {
+		Integer refs = blobRefs.get(entry.hash);
+		if(refs == null)
+		{
+			size += entry.length;
+			refs = 0;
+		}
+		blobRefs.put(entry.hash, refs + 1);
+	}
+
+	private void release(CacheEntry entry) {
+		Integer refs = blobRefs.get(entry.hash);
+		if(refs == null)
+			return;
+		if(refs > 1)
+			blobRefs.put(entry.hash, refs - 1);
+		else
+		{
+			blobRefs.remove(entry.hash);
+			size -= entry.length;
+			getBlob(entry.hash).delete();
+		}
+	}
+
+	private void trim() {
+		Iterator<CacheEntry> it = entries.values().iterator();
+		while (size > maxSize && it.hasNext())
+		{
+			CacheEntry eldest = it.next();
+			it.remove();
+			release(eldest);
+		}
+	}
+
+	private void loadIndex() {
+		if(indexFile.exists())
+		{
+			try
+			{
+				BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+				String line;
+				while ((line = reader.readLine()) != null)
+				{
+					CacheEntry entry = CacheEntry.fromLine(line);
+					if(entry != null && getBlob(entry.hash).exists())
+					{
+						entries.put(entry.url, entry);
+						retain(entry);
+					}
+				}
+				reader.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+		//remove the bodies that are not referenced anymore (e.g. interrupted downloads)
+		File[] files = dir.listFiles();
+		if(files != null)
+		{
+			Set<String> used = new HashSet<String>(blobRefs.keySet());
+			used.add(INDEX_NAME);
+			for (File f : files)
+				if(!used.contains(f.getName()))
+					f.delete();
+		}
+		trim();
+	}
+
+	private void saveIndex() {
+		try
+		{
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(indexFile), "UTF-8"));
+			//the eldest entries go first so that the order survives a restart
+			for (CacheEntry entry : entries.values())
+				out.println(entry.toLine());
+			out.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	//========================================================================
+
+	/**
+	 * A response served from the disk.
+	 */
+	private static class DiskResponse extends CacheResponse {
+		private final CacheEntry entry;
+		private final File blob;
+
+		DiskResponse(CacheEntry entry, File blob) {
+			this.entry = entry;
+			this.blob = blob;
+		}
+
+		@Override
+		public Map<String, List<String>> getHeaders() throws IOException {
+			return entry.getHeaders();
+		}
+
+		@Override
+		public InputStream getBody() throws IOException {
+			return new FileInputStream(blob);
+		}
+	}
+
+	/**
+	 * A fresh response obtained during revalidation, passed through to the caller.
+	 */
+	private static class NetworkResponse extends CacheResponse {
+		private final Map<String, List<String>> headers;
+		private final InputStream body;
+
+		NetworkResponse(Map<String, List<String>> headers, InputStream body) {
+			this.headers = headers;
+			this.body = body;
+		}
+
+		@Override
+		public Map<String, List<String>> getHeaders() throws IOException {
+			return headers;
+		}
+
+		@Override
+		public InputStream getBody() throws IOException {
+			return body;
+		}
+	}
+
+	/**
+	 * Writes a body being downloaded to a temporary file while hashing it. The entry
+	 * is committed when the body is complete, an aborted download is thrown away.
+	 */
+	private class CacheWriter extends CacheRequest {
+		private final String url;
+		private final long expires;
+		private final String etag;
+		private final String lastModified;
+		private final String contentType;
+		private final String contentEncoding;
+		private final File temp;
+		private final MessageDigest digest;
+		private final OutputStream body;
+		private long length = 0;
+		private boolean done = false;
+
+		CacheWriter(String url, long expires, String etag, String lastModified, String contentType, String contentEncoding) throws IOException {
+			this.url = url;
+			this.expires = expires;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.contentType = contentType;
+			this.contentEncoding = contentEncoding;
+			try
+			{
+				digest = MessageDigest.getInstance("SHA-1");
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				throw new IOException(e.getMessage());
+			}
+			temp = File.createTempFile("download", ".tmp", dir);
+			body = new FilterOutputStream(new FileOutputStream(temp)) {
+				@Override
+				public void write(int b) throws IOException {
+					out.write(b);
+					digest.update((byte) b);
+					length++;
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+					digest.update(b, off, len);
+					length += len;
+				}
+
+				@Override
+				public void close() throws IOException {
+					super.close();
+					finish();
+				}
+			};
+		}
+
+		@Override
+		public OutputStream getBody() throws IOException {
+			return body;
+		}
+
+		@Override
+		public synchronized void abort() {
+			if(done)
+				return;
+			done = true;
+			try
+			{
+				body.close();
+			}
+			catch (IOException e)
+			{
+			}
+			temp.delete();
+		}
+
+		private synchronized void finish() {
+			if(done)
+				return;
+			done = true;
+			commit(new CacheEntry(url, toHex(digest.digest()), length, expires, etag, lastModified, contentType, contentEncoding), temp);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+		{
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Copies everything read from the network into a cache writer. The body is
+	 * committed on the end of the stream, closing it earlier aborts the entry.
+	 */
+	private static class TeeInputStream extends FilterInputStream {
+		private final CacheWriter writer;
+		private OutputStream copy;
+
+		TeeInputStream(InputStream in, CacheWriter writer) throws IOException {
+			super(in);
+			this.writer = writer;
+			this.copy = writer.getBody();
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b == -1)
+				complete();
+			else if(copy != null)
+			{
+				try
+				{
+					copy.write(b);
+				}
+				catch (IOException e)
+				{
+					abort();
+				}
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if(n == -1)
+				complete();
+			else if(n > 0 && copy != null)
+			{
+				try
+				{
+					copy.write(b, off, n);
+				}
+				catch (IOException e)
+				{
+					abort();
+				}
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			//skipped data would be missing in the copy
+			abort();
+			return super.skip(n);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			abort();
+			super.close();
+		}
+
+		private void complete() {
+			if(copy != null)
+			{
+				try
+				{
+					copy.close();
+				}
+				catch (IOException e)
+				{
+					writer.abort();
+				}
+				copy = null;
+			}
+		}
+
+		private void abort() {
+			if(copy != null)
+			{
+				writer.abort();
+				copy = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.androdome.iadventure.historyutils;
+
+import java.awt.Dimension;
+import java.net.URL;
+
+import org.fit.cssbox.css.DOMAnalyzer;
+import org.fit.cssbox.layout.Viewport;
+import org.w3c.dom.Element;
+
+/**
+ * A laid out page kept alive for the back/forward cache. Restoring it only
+ * swaps the objects into the browser canvas, nothing is parsed or laid out again.
+ * Only the visible tiles of the page are drawn again.
+ */
+public class CachedPage {
+	/** Rough heap cost of a single box including its graphics and visual context */
+	private static final long BOX_COST = 2048;
+
+	public final Element root;
+	public final DOMAnalyzer decoder;
+	public final URL baseurl;
+	public final Viewport viewport;
+	/** Size of the scroll pane the page was laid out for */
+	public final Dimension size;
+	private final long bytes;
+
+	public CachedPage(Element root, DOMAnalyzer decoder, URL baseurl, Viewport viewport, Dimension size) {
+		this.root = root;
+		this.decoder = decoder;
+		this.baseurl = baseurl;
+		this.viewport = viewport;
+		this.size = new Dimension(size);
+		this.bytes = viewport == null ? 0 : viewport.getFactory().getBoxCount() * BOX_COST;
+	}
+
+	/**
+	 * @return estimated memory held by the page in bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+}
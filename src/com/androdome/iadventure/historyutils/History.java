@@ -0,0 +1,66 @@
+package com.androdome.iadventure.historyutils;
+
+import java.util.ArrayList;
+
+/**
+ * Session history of a browser frame. Visiting a new location drops the forward
+ * entries, going back and forward only moves the current position.
+ */
+public class History {
+	private ArrayList<HistoryEntry> entries = new ArrayList<HistoryEntry>();
+	private int current = -1;
+
+	/**
+	 * Adds a new location after the current one and makes it current.
+	 * @return the new entry
+	 */
+	public synchronized HistoryEntry visit(String location) {
+		while (entries.size() > current + 1)
+			entries.remove(entries.size() - 1);
+		HistoryEntry entry = new HistoryEntry(location);
+		entries.add(entry);
+		current = entries.size() - 1;
+		return entry;
+	}
+
+	public synchronized HistoryEntry getCurrent() {
+		if(current < 0)
+			return null;
+		return entries.get(current);
+	}
+
+	public synchronized boolean canGoBack() {
+		return current > 0;
+	}
+
+	public synchronized boolean canGoForward() {
+		return current < entries.size() - 1;
+	}
+
+	/**
+	 * Moves one entry back.
+	 * @return the new current entry or <code>null</code> if there is none
+	 */
+	public synchronized HistoryEntry back() {
+		if(!canGoBack())
+			return null;
+		return entries.get(--current);
+	}
+
+	/**
+	 * Moves one entry forward.
+	 * @return the new current entry or <code>null</code> if there is none
+	 */
+	public synchronized HistoryEntry forward() {
+		if(!canGoForward())
+			return null;
+		return entries.get(++current);
+	}
+
+	/**
+	 * @return <code>true</code> if the entry is still reachable with back or forward
+	 */
+	public synchronized boolean contains(HistoryEntry entry) {
+		return entries.contains(entry);
+	}
+}
@@ -0,0 +1,28 @@
+package com.androdome.iadventure.historyutils;
+
+/**
+ * A single visited location in the session history.
+ */
+public class HistoryEntry {
+	private String location;
+
+	HistoryEntry(String location) {
+		this.location = location;
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * Updates the location once the final address (after redirects) is known.
+	 */
+	public void setLocation(String location) {
+		this.location = location;
+	}
+
+	@Override
+	public String toString() {
+		return location;
+	}
+}
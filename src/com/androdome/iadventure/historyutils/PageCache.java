@@ -0,0 +1,63 @@
+package com.androdome.iadventure.historyutils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Back/forward cache. Keeps the laid out pages of recent history entries within
+ * a memory budget, the least recently used pages are dropped first.
+ */
+public class PageCache {
+	private final long budget;
+	private long used = 0;
+	private final LinkedHashMap<HistoryEntry, CachedPage> pages = new LinkedHashMap<HistoryEntry, CachedPage>(16, 0.75f, true);
+
+	/**
+	 * @param budget the maximal estimated size of all the cached pages in bytes
+	 */
+	public PageCache(long budget) {
+		this.budget = budget;
+	}
+
+	public synchronized void put(HistoryEntry entry, CachedPage page) {
+		remove(entry);
+		if(page.getBytes() > budget)
+			return;
+		pages.put(entry, page);
+		used += page.getBytes();
+		Iterator<CachedPage> it = pages.values().iterator();
+		while (used > budget && it.hasNext())
+		{
+			CachedPage eldest = it.next();
+			it.remove();
+			used -= eldest.getBytes();
+		}
+	}
+
+	public synchronized CachedPage get(HistoryEntry entry) {
+		return pages.get(entry);
+	}
+
+	public synchronized void remove(HistoryEntry entry) {
+		CachedPage old = pages.remove(entry);
+		if(old != null)
+			used -= old.getBytes();
+	}
+
+	/**
+	 * Drops the pages of entries that can no longer be reached in the history.
+	 */
+	public synchronized void prune(History history) {
+		Iterator<Map.Entry<HistoryEntry, CachedPage>> it = pages.entrySet().iterator();
+		while (it.hasNext())
+		{
+			Map.Entry<HistoryEntry, CachedPage> e = it.next();
+			if(!history.contains(e.getKey()))
+			{
+				it.remove();
+				used -= e.getValue().getBytes();
+			}
+		}
+	}
+}
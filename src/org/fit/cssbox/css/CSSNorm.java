@@ -20,6 +20,12 @@
 
 package org.fit.cssbox.css;
 
+import java.io.IOException;
+
+import cz.vutbr.web.css.CSSException;
+import cz.vutbr.web.css.CSSFactory;
+import cz.vutbr.web.css.StyleSheet;
+
 /**
  * This class provides standard style sheets for the browser.
  *
@@ -27,6 +33,8 @@ package org.fit.cssbox.css;
  */
 public class CSSNorm 
 {
+    private static StyleSheet stdStyles = null;
+    private static StyleSheet userStyles = null;
 
     /**
      * Defines a standard HTML style sheet defining the basic style of the individual elements.
@@ -132,5 +140,41 @@ public class CSSNorm
         //standard <ul> margin according to Mozilla
         "ul     { margin-left: 0; padding-left: 40px; }";
     }
-    
+
+    /**
+     * Obtains the parsed standard style sheet (see {@link #stdStyleSheet()}). The style sheet
+     * is parsed only once and it is shared by all the documents, it must not be modified.
+     * @return the style sheet
+     */
+    public static synchronized StyleSheet stdStyles()
+    {
+        if (stdStyles == null)
+            stdStyles = parse(stdStyleSheet());
+        return stdStyles;
+    }
+
+    /**
+     * Obtains the parsed additional style sheet (see {@link #userStyleSheet()}). The style sheet
+     * is parsed only once and it is shared by all the documents, it must not be modified.
+     * @return the style sheet
+     */
+    public static synchronized StyleSheet userStyles()
+    {
+        if (userStyles == null)
+            userStyles = parse(userStyleSheet());
+        return userStyles;
+    }
+
+    private static StyleSheet parse(String css)
+    {
+        try {
+            return StyleSheetCache.parse(css, null);
+        } catch (IOException e) {
+            System.err.println("CSSNorm: I/O Error: " + e.getMessage());
+        } catch (CSSException e) {
+            System.err.println("CSSNorm: CSS Error: " + e.getMessage());
+        }
+        return (StyleSheet) CSSFactory.getRuleFactory().createStyleSheet().unlock();
+    }
+
 }
@@ -31,8 +31,6 @@ import cz.vutbr.web.css.CSSFactory;
 import cz.vutbr.web.css.NodeData;
 import cz.vutbr.web.css.StyleSheet;
 import cz.vutbr.web.css.Selector.PseudoDeclaration;
-import cz.vutbr.web.domassign.Analyzer;
-import cz.vutbr.web.domassign.StyleMap;
 
 
 /**
@@ -50,9 +48,8 @@ public class DOMAnalyzer
     
     private Vector<StyleSheet> styles;  //vector of StyleSheet sheets
     private StyleSheet mainsheet; //the stylesheet containing all the rules, if it is null, it must be recomputed
-    private Analyzer analyzer; //style sheet analyzer
-    private StyleMap stylemap; //style map for DOM nodes
-    private StyleMap istylemap; //style map with inheritance
+    private RuleIndex ruleindex; //index of the mainsheet rules for the used media
+    private StyleResolver resolver; //element styles computed on demand
     
     /**
      * Creates a new DOM analyzer.
@@ -65,8 +62,8 @@ public class DOMAnalyzer
         baseUrl = null;
         styles = new Vector<StyleSheet>();
         mainsheet = null;
-        stylemap = null;
-        istylemap = null;
+        ruleindex = null;
+        resolver = null;
     }
         
     /**
@@ -81,8 +78,8 @@ public class DOMAnalyzer
         styles = new Vector<StyleSheet>();
         this.baseUrl = baseUrl;
         mainsheet = null;
-        stylemap = null;
-        istylemap = null;
+        ruleindex = null;
+        resolver = null;
     }
     
     /**
@@ -171,13 +168,14 @@ public class DOMAnalyzer
     /** 
      * Returns a vector of CSSStyleSheet objects referenced from the document for the specified
      * media type. The internal style sheets are read from the document directly, the external
-     * ones are downloaded and parsed automatically.
+     * ones are downloaded and parsed automatically. All the external style sheets including
+     * the imported ones are downloaded at the same time.
      * @param media the media type string
      */
     public void getStyleSheets(String media)
     {
     	this.media = new String(media);
-        StyleSheet newsheet = CSSFactory.getUsedStyles(doc, baseUrl, media);
+        StyleSheet newsheet = new StyleSheetLoader(baseUrl, media).getUsedStyles(doc.getDocumentElement());
         styles.add(newsheet);
     }
 
@@ -194,14 +192,15 @@ public class DOMAnalyzer
 
     /**
      * Loads a stylesheet from an URL.
-     * Imports all the imported style sheets before storing it.
+     * Imports all the imported style sheets before storing it. The imported style sheets
+     * are downloaded at the same time.
      * @param base the document base url
      * @param href the href specification
      */
     public void loadStyleSheet(URL base, String href, String encoding)
     {
         try {
-            StyleSheet newsheet = CSSFactory.parse(new URL(base, href), encoding); 
+            StyleSheet newsheet = new StyleSheetLoader(base, media).load(new URL(base, href), encoding); 
             styles.add(newsheet);
         } catch (IOException e) {
             System.err.println("DOMAnalyzer: I/O Error: "+e.getMessage());
@@ -213,15 +212,16 @@ public class DOMAnalyzer
     /**
      * Parses and adds a style sheet represented as a string to the end of the used
      * stylesheet lists. It imports all the imported style sheets before storing
-     * it.
+     * it. The same style sheet is parsed only once and the result is shared
+     * (see {@link StyleSheetCache}).
      * @param base the document base URL
      * @param cssdata the style string
      */
 	public void addStyleSheet(URL base, String cssdata)
     {
 	    try {
-    	    StyleSheet newsheet = CSSFactory.parse(cssdata);
-            styles.add(newsheet);
+    	    StyleSheet newsheet = StyleSheetCache.parse(cssdata, base);
+            addStyleSheet(newsheet);
 	    } catch (IOException e) {
             System.err.println("DOMAnalyzer: I/O Error: "+e.getMessage());
         } catch (CSSException e) {
@@ -229,6 +229,18 @@ public class DOMAnalyzer
         }
     }
     
+    /**
+     * Adds an already parsed style sheet to the end of the used stylesheet lists.
+     * The style sheet is not modified so that it may be shared by multiple documents
+     * (e.g. the style sheets obtained from {@link CSSNorm#stdStyles()}).
+     * @param sheet the style sheet
+     */
+    public void addStyleSheet(StyleSheet sheet)
+    {
+        styles.add(sheet);
+        mainsheet = null;
+    }
+    
     /**
      * Gets all the style declarations for a particular element and computes 
      * the resulting element style.
@@ -237,31 +249,43 @@ public class DOMAnalyzer
      */
     public NodeData getElementStyle(Element el)
     {
-    	if (mainsheet == null)
-    	{
-    		mainsheet = computeMainSheet();
-    		analyzer = new Analyzer(mainsheet);
-    	}
-    	
-    	if (stylemap == null)
-    		stylemap = analyzer.evaluateDOM(doc, media, false);
-    	
-    	return stylemap.get(el);
+        checkStyles();
+    	return resolver.getSpecifiedStyle(el);
     }
     
     /**
-     * Checks whether the inhetited style has been computed and computes it when necessary.
+     * Checks whether the style resolver has been created and creates it when necessary.
+     * The rule index is created once for each main style sheet and media type. The element
+     * styles are then computed when they are requested for the first time.
      */
-    private void checkStylesInherited()
+    private void checkStyles()
     {
         if (mainsheet == null)
         {
             mainsheet = computeMainSheet();
-            analyzer = new Analyzer(mainsheet);
+            ruleindex = null;
         }
         
-        if (istylemap == null)
-            istylemap = analyzer.evaluateDOM(doc, media, true);
+        if (ruleindex == null || !ruleindex.getMedia().equals(media))
+        {
+            ruleindex = new RuleIndex(mainsheet, media);
+            resolver = null;
+        }
+        
+        if (resolver == null)
+            resolver = new StyleResolver(doc, ruleindex);
+    }
+    
+    /**
+     * Computes the styles of all the displayed elements of the document in advance. The large
+     * subtrees are styled in parallel. Without calling this method, the styles are computed
+     * when they are requested for the first time. The style sheets should not be modified
+     * after calling this method.
+     */
+    public void computeStyles()
+    {
+        checkStyles();
+        resolver.resolveAll(getRoot());
     }
     
     /**
@@ -272,8 +296,8 @@ public class DOMAnalyzer
      */
     public NodeData getElementStyleInherited(Element el)
     {
-        checkStylesInherited();
-    	return istylemap.get(el);
+        checkStyles();
+    	return resolver.getInheritedStyle(el, null);
     }
     
     /**
@@ -285,8 +309,8 @@ public class DOMAnalyzer
      */
     public NodeData getElementStyleInherited(Element el, PseudoDeclaration pseudo)
     {
-        checkStylesInherited();
-        return istylemap.get(el, pseudo);
+        checkStyles();
+        return resolver.getInheritedStyle(el, pseudo);
     }
     
     /**
@@ -297,8 +321,8 @@ public class DOMAnalyzer
      */
     public boolean hasPseudoDef(Element el, PseudoDeclaration pseudo)
     {
-        checkStylesInherited();
-        return istylemap.hasPseudo(el, pseudo);
+        checkStyles();
+        return resolver.hasPseudo(el, pseudo);
     }
     
     /**
@@ -309,8 +333,8 @@ public class DOMAnalyzer
      */
     public void useStyle(Element el, PseudoDeclaration pseudo, NodeData style)
     {
-        checkStylesInherited();
-        istylemap.put(el, pseudo, style);
+        checkStyles();
+        resolver.useStyle(el, pseudo, style);
     }
     
     //====================================================================
@@ -389,7 +413,8 @@ public class DOMAnalyzer
         StyleSheet newstyle = (StyleSheet) CSSFactory.getRuleFactory().createStyleSheet().unlock();
         for (StyleSheet style : styles)
             newstyle.addAll(style);
-        return newstyle;
+        //the shared style sheets may have been parsed in a different order
+        return StyleSheetCache.order(newstyle);
     }
     
 }
@@ -0,0 +1,373 @@
+/*
+ * RuleIndex.java
+ * Copyright (c) 2026 Internet Adventure contributors
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fit.cssbox.css;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Element;
+
+import cz.vutbr.web.css.CombinedSelector;
+import cz.vutbr.web.css.RuleBlock;
+import cz.vutbr.web.css.RuleMedia;
+import cz.vutbr.web.css.RuleSet;
+import cz.vutbr.web.css.Selector;
+import cz.vutbr.web.css.StyleSheet;
+import cz.vutbr.web.css.Selector.PseudoDeclaration;
+
+/**
+ * An index of the style sheet rules used for finding the rules that may match an element.
+ * Each selector is registered under the id, the class or the element name required by its
+ * rightmost simple selector, the selectors that require none of them are always checked.
+ * Additionally, the ids, classes and element names required from the ancestors of the element
+ * are checked against an {@link AncestorFilter} so that most of the descendant selectors that
+ * cannot match are rejected without walking the tree. The selectors created for the inline
+ * styles are registered under their elements. The index does not change after it
+ * has been created and it may be shared by multiple threads.
+ */
+public class RuleIndex
+{
+    private String media;
+
+    /** The selectors by the required element id */
+    private Map<String, List<RuleEntry>> byId;
+
+    /** The selectors by the required class */
+    private Map<String, List<RuleEntry>> byClass;
+
+    /** The selectors by the required element name */
+    private Map<String, List<RuleEntry>> byName;
+
+    /** The selectors bound to a particular element (the inline styles) */
+    private Map<Element, List<RuleEntry>> byElement;
+
+    /** The selectors that may match any element */
+    private List<RuleEntry> universal;
+
+    private int count;
+
+    /**
+     * Creates an index of the rules of a style sheet that apply to the given medium.
+     * @param sheet the style sheet containing all the rules
+     * @param media the used medium
+     */
+    public RuleIndex(StyleSheet sheet, String media)
+    {
+        this.media = media;
+        byId = new HashMap<String, List<RuleEntry>>();
+        byClass = new HashMap<String, List<RuleEntry>>();
+        byName = new HashMap<String, List<RuleEntry>>();
+        byElement = new IdentityHashMap<Element, List<RuleEntry>>();
+        universal = new ArrayList<RuleEntry>();
+        count = 0;
+        for (RuleBlock<?> rule : sheet)
+        {
+            if (rule instanceof RuleSet)
+                addRules((RuleSet) rule);
+            else if (rule instanceof RuleMedia && matchesMedia((RuleMedia) rule))
+            {
+                for (RuleSet set : (RuleMedia) rule)
+                    addRules(set);
+            }
+        }
+    }
+
+    /**
+     * Returns the medium that the index has been created for.
+     */
+    public String getMedia()
+    {
+        return media;
+    }
+
+    /**
+     * Returns the total number of the indexed selectors.
+     */
+    public int getSelectorCount()
+    {
+        return count;
+    }
+
+    /**
+     * Finds the selectors that may match an element. The selectors must be matched to the
+     * element in order to find the ones that really match.
+     * @param e the element
+     * @param ancestors the filter of the element ancestors or <code>null</code> when it is not known
+     * @param dest the list where the candidate selectors are added
+     */
+    public void getCandidates(Element e, AncestorFilter ancestors, List<RuleEntry> dest)
+    {
+        addCandidates(byElement.get(e), ancestors, dest);
+        String id = e.getAttribute("id");
+        if (id.length() > 0)
+            addCandidates(byId.get(id.toLowerCase()), ancestors, dest);
+        String cls = e.getAttribute("class");
+        if (cls.length() > 0)
+        {
+            for (String c : splitClasses(cls))
+                addCandidates(byClass.get(c), ancestors, dest);
+        }
+        addCandidates(byName.get(e.getNodeName().toLowerCase()), ancestors, dest);
+        addCandidates(universal, ancestors, dest);
+    }
+
+    //====================================================================
+
+    private void addCandidates(List<RuleEntry> list, AncestorFilter ancestors, List<RuleEntry> dest)
+    {
+        if (list != null)
+        {
+            for (RuleEntry rule : list)
+            {
+                if (ancestors == null || ancestors.mayContain(rule.ancestorHashes))
+                    dest.add(rule);
+            }
+        }
+    }
+
+    private void addRules(RuleSet set)
+    {
+        for (CombinedSelector sel : set.getSelectors())
+        {
+            if (!sel.isEmpty())
+            {
+                RuleEntry entry = new RuleEntry(sel, set);
+                Selector last = sel.get(sel.size() - 1);
+                Element bound = getBoundElement(last);
+                if (bound != null)
+                {
+                    List<RuleEntry> list = byElement.get(bound);
+                    if (list == null)
+                    {
+                        list = new ArrayList<RuleEntry>(1);
+                        byElement.put(bound, list);
+                    }
+                    list.add(entry);
+                }
+                else if (last.getIDName() != null)
+                    add(byId, last.getIDName().toLowerCase(), entry);
+                else if (last.getClassName() != null)
+                    add(byClass, last.getClassName().toLowerCase(), entry);
+                else if (last.getElementName() != null && !Selector.ElementName.WILDCARD.equals(last.getElementName()))
+                    add(byName, last.getElementName().toLowerCase(), entry);
+                else
+                    universal.add(entry);
+                count++;
+            }
+        }
+    }
+
+    private void add(Map<String, List<RuleEntry>> map, String key, RuleEntry entry)
+    {
+        List<RuleEntry> list = map.get(key);
+        if (list == null)
+        {
+            list = new ArrayList<RuleEntry>();
+            map.put(key, list);
+        }
+        list.add(entry);
+    }
+
+    private boolean matchesMedia(RuleMedia rule)
+    {
+        List<String> list = rule.getMedia();
+        if (list == null || list.isEmpty())
+            return true;
+        for (String m : list)
+        {
+            String name = m.trim().toLowerCase();
+            if (name.equals(media) || name.equals("all"))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the element that a simple selector is bound to.
+     * @return the element or <code>null</code> when the selector is not bound to any element
+     */
+    private static Element getBoundElement(Selector s)
+    {
+        for (Selector.SelectorPart part : s)
+        {
+            if (part instanceof Selector.ElementDOM)
+                return ((Selector.ElementDOM) part).getElement();
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether a simple selector depends on something else than the element name and
+     * attributes and the ancestors (e.g. the pseudo-classes or the inline style selectors).
+     */
+    private static boolean isStructural(Selector s)
+    {
+        int pseudo = 0;
+        for (Selector.SelectorPart part : s)
+        {
+            if (part instanceof Selector.ElementDOM)
+                return true;
+            else if (part instanceof Selector.PseudoPage)
+                pseudo++;
+        }
+        //a single pseudo-element is allowed
+        return pseudo > ((s.getPseudoElement() != null) ? 1 : 0);
+    }
+
+    private static String[] splitClasses(String cls)
+    {
+        return cls.trim().toLowerCase().split("\\s+");
+    }
+
+    //====================================================================
+
+    /**
+     * A single selector of a rule set.
+     */
+    static class RuleEntry
+    {
+        public CombinedSelector selector;
+        public CombinedSelector.Specificity specificity;
+        public RuleSet set;
+        public PseudoDeclaration pseudo;
+        /** The hashes of the names that must be present in the ancestors */
+        public int[] ancestorHashes;
+        /** The selector may match differently two siblings with the same name, attributes and parent */
+        public boolean structural;
+
+        public RuleEntry(CombinedSelector selector, RuleSet set)
+        {
+            this.selector = selector;
+            this.specificity = selector.computeSpecificity();
+            this.set = set;
+            Selector last = selector.get(selector.size() - 1);
+            this.pseudo = last.getPseudoElement();
+            this.structural = isStructural(last) || (selector.size() > 1 && last.getCombinator() == Selector.Combinator.ADJACENT);
+
+            //a simple selector applies to an ancestor when there is a descendant or child combinator on its right;
+            //a simple selector followed by an adjacent sibling combinator applies to a sibling, not an ancestor
+            List<Integer> hashes = new ArrayList<Integer>();
+            for (int i = selector.size() - 1; i > 0; i--)
+            {
+                if (selector.get(i).getCombinator() != Selector.Combinator.ADJACENT)
+                {
+                    Selector s = selector.get(i - 1);
+                    if (s.getIDName() != null)
+                        hashes.add(AncestorFilter.idHash(s.getIDName().toLowerCase()));
+                    if (s.getClassName() != null)
+                        hashes.add(AncestorFilter.classHash(s.getClassName().toLowerCase()));
+                    if (s.getElementName() != null && !Selector.ElementName.WILDCARD.equals(s.getElementName()))
+                        hashes.add(AncestorFilter.nameHash(s.getElementName().toLowerCase()));
+                }
+            }
+            ancestorHashes = new int[hashes.size()];
+            for (int i = 0; i < ancestorHashes.length; i++)
+                ancestorHashes[i] = hashes.get(i);
+        }
+    }
+
+    /**
+     * A Bloom filter of the ids, classes and element names of an element and all its ancestors.
+     * It may report a name that is not present but it never misses a present one. The filter
+     * is not modified after it has been created.
+     */
+    public static class AncestorFilter
+    {
+        private static final int BITS = 512;
+
+        private long[] bits;
+
+        private AncestorFilter(long[] bits)
+        {
+            this.bits = bits;
+        }
+
+        /**
+         * Creates the filter for the children of an element.
+         * @param parent the filter of the element ancestors or <code>null</code> for the root element
+         * @param e the element
+         * @return the filter containing the element and its ancestors
+         */
+        public static AncestorFilter create(AncestorFilter parent, Element e)
+        {
+            AncestorFilter ret = new AncestorFilter((parent == null) ? new long[BITS / 64] : parent.bits.clone());
+            ret.add(nameHash(e.getNodeName().toLowerCase()));
+            String id = e.getAttribute("id");
+            if (id.length() > 0)
+                ret.add(idHash(id.toLowerCase()));
+            String cls = e.getAttribute("class");
+            if (cls.length() > 0)
+            {
+                for (String c : splitClasses(cls))
+                    ret.add(classHash(c));
+            }
+            return ret;
+        }
+
+        /**
+         * Checks whether all the given hashes may be present in the filter.
+         */
+        public boolean mayContain(int[] hashes)
+        {
+            for (int h : hashes)
+            {
+                if (!isSet(h) || !isSet(h >>> 16 | h << 16))
+                    return false;
+            }
+            return true;
+        }
+
+        private void add(int h)
+        {
+            set(h);
+            set(h >>> 16 | h << 16);
+        }
+
+        private void set(int h)
+        {
+            int bit = (h & 0x7fffffff) % BITS;
+            bits[bit >> 6] |= 1L << (bit & 63);
+        }
+
+        private boolean isSet(int h)
+        {
+            int bit = (h & 0x7fffffff) % BITS;
+            return (bits[bit >> 6] & (1L << (bit & 63))) != 0;
+        }
+
+        static int nameHash(String name)
+        {
+            return name.hashCode() * 0x9e3779b1;
+        }
+
+        static int idHash(String id)
+        {
+            return ('#' + id).hashCode() * 0x9e3779b1;
+        }
+
+        static int classHash(String cls)
+        {
+            return ('.' + cls).hashCode() * 0x9e3779b1;
+        }
+    }
+
+}
@@ -0,0 +1,606 @@
+/*
+ * StyleResolver.java
+ * Copyright (c) 2026 Internet Adventure contributors
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fit.cssbox.css;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import org.fit.cssbox.css.RuleIndex.AncestorFilter;
+import org.fit.cssbox.css.RuleIndex.RuleEntry;
+
+import cz.vutbr.web.css.CSSFactory;
+import cz.vutbr.web.css.CSSProperty;
+import cz.vutbr.web.css.CombinedSelector;
+import cz.vutbr.web.css.Declaration;
+import cz.vutbr.web.css.NodeData;
+import cz.vutbr.web.css.RuleBlock;
+import cz.vutbr.web.css.Selector;
+import cz.vutbr.web.css.Selector.PseudoDeclaration;
+
+/**
+ * Computes the styles of the document elements on demand. The rules are matched only once
+ * for each element and the matching declarations are used for both the specified style and
+ * the style with inheritance. The style of an element is computed only when it is requested
+ * (together with the styles of its ancestors), so that the elements that are never displayed
+ * (e.g. the <code>&lt;head&gt;</code> contents or the <code>display: none</code> subtrees)
+ * are never styled. The candidate rules for each element are obtained from a {@link RuleIndex}.
+ *
+ * <p>The siblings with the same element name and attributes usually obtain the same style
+ * (e.g. the list items or table rows). When none of the rules that may apply to such an element
+ * depends on its position among the siblings, the element shares the style of a recently styled
+ * sibling instead of matching the rules again. The shared styles are the same {@link NodeData}
+ * instances, so the computed styles must not be modified.
+ *
+ * <p>The styles of the whole document may be computed in advance by {@link #resolveAll(Element)}.
+ * The large subtrees are then styled in parallel by a fork/join pool. The parent styles are
+ * computed before the child tasks are started and they are never modified afterwards,
+ * so the inherited values are passed to the tasks without any locking.
+ */
+public class StyleResolver
+{
+    /** The maximal number of the previous siblings checked for a shared style */
+    private static final int MAX_SHARING_SIBLINGS = 8;
+    
+    /** The minimal number of elements in a subtree that is styled by a separate task */
+    private static final int MIN_TASK_SIZE = 128;
+    
+    private static ForkJoinPool pool = null;
+    
+    private Document doc;
+
+    /** The index of the rules that apply to the used medium */
+    private RuleIndex index;
+
+    /** The styles of the elements computed so far */
+    private Map<Element, ElementStyle> styles;
+
+    /**
+     * Creates a new resolver.
+     * @param doc the document whose elements are styled
+     * @param index the index of the rules for the used medium
+     */
+    public StyleResolver(Document doc, RuleIndex index)
+    {
+        this.doc = doc;
+        this.index = index;
+        styles = new ConcurrentHashMap<Element, ElementStyle>();
+    }
+
+    /**
+     * Computes the styles of all the displayed elements of a subtree in advance. The subtrees
+     * of at least {@link #MIN_TASK_SIZE} elements are styled in parallel. The elements with
+     * <code>display: none</code> and their descendants are not styled until they are requested.
+     * No other method may be called while the styles are being computed.
+     * @param root the root element of the subtree, usually the document root element
+     */
+    public void resolveAll(Element root)
+    {
+        //count the elements; this also expands the DOM nodes that have not been created yet
+        //so that the tree is not modified when it is traversed by multiple threads
+        Map<Element, Integer> sizes = new IdentityHashMap<Element, Integer>();
+        int total = countElements(root, sizes);
+        if (total >= 2 * MIN_TASK_SIZE)
+            getPool().invoke(new StyleTask(root, null, sizes));
+    }
+
+    /**
+     * Obtains the specified style of the element. No inheritance is applied.
+     * @param el the element
+     * @return the style or <code>null</code> when the element is not a part of the document
+     */
+    public NodeData getSpecifiedStyle(Element el)
+    {
+        ElementStyle es = getStyle(el);
+        return (es == null) ? null : es.getSpecified();
+    }
+
+    /**
+     * Obtains the style of the element or its pseudo-element including the values inherited
+     * from the parent element.
+     * @param el the element
+     * @param pseudo the pseudo-element or <code>null</code> for the element itself
+     * @return the style or <code>null</code> when the element is not a part of the document or
+     * when there is no style defined for the pseudo-element
+     */
+    public NodeData getInheritedStyle(Element el, PseudoDeclaration pseudo)
+    {
+        ElementStyle es = getStyle(el);
+        if (es == null)
+            return null;
+        else if (pseudo == null)
+            return es.inherited;
+        else
+            return es.getPseudo(pseudo);
+    }
+
+    /**
+     * Checks whether there is some style defined for a pseudo-element of the element.
+     * @param el the element
+     * @param pseudo the pseudo-element
+     * @return <code>true</code> when some style has been defined
+     */
+    public boolean hasPseudo(Element el, PseudoDeclaration pseudo)
+    {
+        ElementStyle es = getStyle(el);
+        return es != null && es.hasPseudo(pseudo);
+    }
+
+    /**
+     * Assigns a style to an element or its pseudo-element. The element need not be a part
+     * of the document (e.g. the elements created for the generated content).
+     * @param el the element
+     * @param pseudo the pseudo-element or <code>null</code> for the element itself
+     * @param style the style to be used
+     */
+    public void useStyle(Element el, PseudoDeclaration pseudo, NodeData style)
+    {
+        ElementStyle es = getStyle(el);
+        if (es == null)
+        {
+            es = new ElementStyle(new ArrayList<Declaration>(0), null, null);
+            styles.put(el, es);
+        }
+        es.shareable = false;
+        if (pseudo == null)
+            es.inherited = style;
+        else
+            es.setPseudo(pseudo, style);
+    }
+
+    //====================================================================
+
+    private static synchronized ForkJoinPool getPool()
+    {
+        if (pool == null)
+            pool = new ForkJoinPool();
+        return pool;
+    }
+
+    private int countElements(Element e, Map<Element, Integer> sizes)
+    {
+        e.getAttributes();
+        int ret = 1;
+        for (Node child = e.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if (child.getNodeType() == Node.ELEMENT_NODE)
+                ret += countElements((Element) child, sizes);
+        }
+        sizes.put(e, ret);
+        return ret;
+    }
+
+    /**
+     * Computes the styles of a subtree. The child subtrees that are large enough are
+     * computed by separate tasks started as soon as the parent style is known, the remaining
+     * ones are computed by the current task.
+     */
+    private class StyleTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private Element root;
+        private ElementStyle parent;
+        private Map<Element, Integer> sizes;
+        
+        public StyleTask(Element root, ElementStyle parent, Map<Element, Integer> sizes)
+        {
+            this.root = root;
+            this.parent = parent;
+            this.sizes = sizes;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            List<StyleTask> tasks = new ArrayList<StyleTask>();
+            resolve(root, parent, tasks);
+            for (StyleTask task : tasks)
+                task.join();
+        }
+        
+        private void resolve(Element e, ElementStyle parentStyle, List<StyleTask> tasks)
+        {
+            ElementStyle es = styles.get(e);
+            if (es == null)
+            {
+                if (parentStyle == null)
+                    es = getStyle(e);
+                else
+                {
+                    es = computeStyle(e, parentStyle);
+                    styles.put(e, es);
+                }
+                if (es == null)
+                    return;
+            }
+            if (es.inherited.getProperty("display") == CSSProperty.Display.NONE)
+                return; //styled on demand
+            
+            for (Node child = e.getFirstChild(); child != null; child = child.getNextSibling())
+            {
+                if (child.getNodeType() == Node.ELEMENT_NODE)
+                {
+                    Element el = (Element) child;
+                    if (sizes.get(el) >= MIN_TASK_SIZE)
+                    {
+                        StyleTask task = new StyleTask(el, es, sizes);
+                        task.fork();
+                        tasks.add(task);
+                    }
+                    else
+                        resolve(el, es, tasks);
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtains the style of an element. When the style has not been computed yet, it is computed
+     * together with the styles of all the ancestors that have not been computed yet.
+     */
+    private ElementStyle getStyle(Element el)
+    {
+        ElementStyle ret = styles.get(el);
+        if (ret != null)
+            return ret;
+
+        //find the ancestors without the computed style
+        List<Element> path = new ArrayList<Element>();
+        ElementStyle parent = null;
+        Node cur = el;
+        while (cur != null && cur.getNodeType() == Node.ELEMENT_NODE)
+        {
+            parent = styles.get(cur);
+            if (parent != null)
+                break;
+            path.add((Element) cur);
+            cur = cur.getParentNode();
+        }
+        if (parent == null && cur != doc)
+            return null; //not a part of the document
+
+        //compute the styles from the top
+        for (int i = path.size() - 1; i >= 0; i--)
+        {
+            Element e = path.get(i);
+            parent = computeStyle(e, parent);
+            styles.put(e, parent);
+        }
+        return parent;
+    }
+
+    /**
+     * Matches the rules to the element and computes its style.
+     */
+    private ElementStyle computeStyle(Element el, ElementStyle parent)
+    {
+        ElementStyle shared = findSharedStyle(el, parent);
+        if (shared != null)
+            return new ElementStyle(shared);
+        
+        AncestorFilter ancestors = (parent == null) ? null : parent.filter;
+        if (parent != null && ancestors == null)
+            ancestors = createFilter(parentElement(el));
+        List<RuleEntry> candidates = new ArrayList<RuleEntry>();
+        index.getCandidates(el, ancestors, candidates);
+        
+        boolean shareable = parent != null && el.getAttribute("id").length() == 0 && el.getAttribute("style").length() == 0;
+        List<MatchedDeclaration> main = new ArrayList<MatchedDeclaration>();
+        Map<PseudoDeclaration, List<MatchedDeclaration>> pseudo = null;
+        for (RuleEntry rule : candidates)
+        {
+            if (rule.structural)
+                shareable = false;
+            if (matches(rule.selector, rule.selector.size() - 1, el))
+            {
+                List<MatchedDeclaration> dest;
+                if (rule.pseudo == null)
+                    dest = main;
+                else
+                {
+                    if (pseudo == null)
+                        pseudo = new HashMap<PseudoDeclaration, List<MatchedDeclaration>>();
+                    dest = pseudo.get(rule.pseudo);
+                    if (dest == null)
+                    {
+                        dest = new ArrayList<MatchedDeclaration>();
+                        pseudo.put(rule.pseudo, dest);
+                    }
+                }
+                for (Declaration d : rule.set)
+                    dest.add(new MatchedDeclaration(d, rule));
+            }
+        }
+
+        ElementStyle ret = new ElementStyle(sort(main), (parent == null) ? null : parent.inherited,
+                                            AncestorFilter.create(ancestors, el));
+        ret.shareable = shareable;
+        if (pseudo != null)
+        {
+            ret.pseudoDecls = new HashMap<PseudoDeclaration, List<Declaration>>();
+            for (Map.Entry<PseudoDeclaration, List<MatchedDeclaration>> entry : pseudo.entrySet())
+                ret.pseudoDecls.put(entry.getKey(), sort(entry.getValue()));
+        }
+        return ret;
+    }
+
+    /**
+     * Finds a style that may be shared by the element. The style of a previous sibling may be
+     * used when the sibling has the same name and attributes and no rule that may apply to it
+     * depends on anything else than the element name, attributes and the ancestors.
+     * @return the sibling style or <code>null</code> when there is no style to share
+     */
+    private ElementStyle findSharedStyle(Element el, ElementStyle parent)
+    {
+        if (parent == null || el.getAttribute("id").length() > 0 || el.getAttribute("style").length() > 0)
+            return null;
+        int cnt = 0;
+        for (Element sib = previousElement(el); sib != null && cnt < MAX_SHARING_SIBLINGS; sib = previousElement(sib))
+        {
+            ElementStyle es = styles.get(sib);
+            if (es != null && es.shareable && es.parentStyle == parent.inherited && sameAttributes(el, sib))
+                return es;
+            cnt++;
+        }
+        return null;
+    }
+    
+    /**
+     * Checks whether two elements have the same name and the same attributes.
+     */
+    private boolean sameAttributes(Element e1, Element e2)
+    {
+        if (!e1.getNodeName().equals(e2.getNodeName()))
+            return false;
+        NamedNodeMap a1 = e1.getAttributes();
+        NamedNodeMap a2 = e2.getAttributes();
+        if (a1.getLength() != a2.getLength())
+            return false;
+        for (int i = 0; i < a1.getLength(); i++)
+        {
+            Node attr = a1.item(i);
+            Node other = a2.getNamedItem(attr.getNodeName());
+            if (other == null || !attr.getNodeValue().equals(other.getNodeValue()))
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Checks whether a selector matches an element.
+     * @param sel the combined selector
+     * @param index the index of the last simple selector to be checked
+     * @param e the element to be matched by the simple selector
+     */
+    private boolean matches(CombinedSelector sel, int index, Element e)
+    {
+        Selector s = sel.get(index);
+        if (!s.matches(e))
+            return false;
+        if (index == 0)
+            return true;
+
+        Selector.Combinator comb = s.getCombinator();
+        if (comb == Selector.Combinator.CHILD)
+        {
+            Element parent = parentElement(e);
+            return parent != null && matches(sel, index - 1, parent);
+        }
+        else if (comb == Selector.Combinator.ADJACENT)
+        {
+            Element prev = previousElement(e);
+            return prev != null && matches(sel, index - 1, prev);
+        }
+        else
+        {
+            for (Element anc = parentElement(e); anc != null; anc = parentElement(anc))
+            {
+                if (matches(sel, index - 1, anc))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private Element parentElement(Element e)
+    {
+        Node parent = e.getParentNode();
+        if (parent != null && parent.getNodeType() == Node.ELEMENT_NODE)
+            return (Element) parent;
+        else
+            return null;
+    }
+
+    private Element previousElement(Element e)
+    {
+        Node prev = e.getPreviousSibling();
+        while (prev != null && prev.getNodeType() != Node.ELEMENT_NODE)
+            prev = prev.getPreviousSibling();
+        return (Element) prev;
+    }
+
+    /**
+     * Sorts the matched declarations in the cascade order.
+     * @return the list of declarations where the last one wins
+     */
+    private List<Declaration> sort(List<MatchedDeclaration> decls)
+    {
+        Collections.sort(decls, DECLARATION_ORDER);
+        List<Declaration> ret = new ArrayList<Declaration>(decls.size());
+        for (MatchedDeclaration d : decls)
+            ret.add(d.declaration);
+        return ret;
+    }
+
+    /**
+     * Creates the ancestor filter for an element whose ancestors have been assigned
+     * their styles explicitly.
+     */
+    private AncestorFilter createFilter(Element e)
+    {
+        if (e == null)
+            return null;
+        else
+            return AncestorFilter.create(createFilter(parentElement(e)), e);
+    }
+
+    private static NodeData createStyle(List<Declaration> decls, NodeData parentStyle)
+    {
+        NodeData ret = CSSFactory.createNodeData();
+        for (Declaration d : decls)
+            ret.push(d);
+        if (parentStyle != null)
+            ret.inheritFrom(parentStyle);
+        ret.concretize();
+        return ret;
+    }
+
+    //====================================================================
+
+    /**
+     * The order of the declarations in the cascade: the important declarations are applied
+     * after the normal ones, then the specificity and the rule order are used.
+     */
+    private static final Comparator<MatchedDeclaration> DECLARATION_ORDER = new Comparator<MatchedDeclaration>() {
+        public int compare(MatchedDeclaration d1, MatchedDeclaration d2)
+        {
+            boolean i1 = d1.declaration.isImportant();
+            boolean i2 = d2.declaration.isImportant();
+            if (i1 != i2)
+                return i1 ? 1 : -1;
+            int ret = d1.rule.specificity.compareTo(d2.rule.specificity);
+            if (ret != 0)
+                return ret;
+            RuleBlock.Priority p1 = d1.rule.set.getPriority();
+            RuleBlock.Priority p2 = d2.rule.set.getPriority();
+            if (p1 == null || p2 == null)
+                return 0;
+            return p1.compareTo(p2);
+        }
+    };
+
+    /**
+     * A declaration together with the rule that it comes from.
+     */
+    private static class MatchedDeclaration
+    {
+        public Declaration declaration;
+        public RuleEntry rule;
+
+        public MatchedDeclaration(Declaration declaration, RuleEntry rule)
+        {
+            this.declaration = declaration;
+            this.rule = rule;
+        }
+    }
+
+    /**
+     * The style of a single element and its pseudo-elements. The declarations are kept
+     * so that the specified style and the pseudo-element styles may be created when
+     * they are requested.
+     */
+    private static class ElementStyle
+    {
+        public List<Declaration> decls;
+        public Map<PseudoDeclaration, List<Declaration>> pseudoDecls;
+        public NodeData specified;
+        public NodeData inherited;
+        public Map<PseudoDeclaration, NodeData> pseudo;
+        /** The ancestor filter for the child elements */
+        public AncestorFilter filter;
+        /** The parent style used for computing the inherited style */
+        public NodeData parentStyle;
+        /** The style may be shared by the siblings with the same name and attributes */
+        public boolean shareable;
+
+        public ElementStyle(List<Declaration> decls, NodeData parentStyle, AncestorFilter filter)
+        {
+            this.decls = decls;
+            this.inherited = createStyle(decls, parentStyle);
+            this.filter = filter;
+            this.parentStyle = parentStyle;
+            this.shareable = false;
+        }
+        
+        /**
+         * Creates a style of a sibling element that shares the computed styles with the given style.
+         */
+        public ElementStyle(ElementStyle src)
+        {
+            decls = src.decls;
+            pseudoDecls = src.pseudoDecls;
+            specified = src.specified;
+            inherited = src.inherited;
+            if (src.pseudo != null)
+                pseudo = new HashMap<PseudoDeclaration, NodeData>(src.pseudo);
+            filter = src.filter;
+            parentStyle = src.parentStyle;
+            shareable = true;
+        }
+
+        public NodeData getSpecified()
+        {
+            if (specified == null)
+                specified = createStyle(decls, null);
+            return specified;
+        }
+
+        public boolean hasPseudo(PseudoDeclaration p)
+        {
+            return (pseudo != null && pseudo.containsKey(p))
+                    || (pseudoDecls != null && pseudoDecls.containsKey(p));
+        }
+
+        public NodeData getPseudo(PseudoDeclaration p)
+        {
+            NodeData ret = (pseudo == null) ? null : pseudo.get(p);
+            if (ret == null && pseudoDecls != null)
+            {
+                List<Declaration> pdecls = pseudoDecls.get(p);
+                if (pdecls != null)
+                {
+                    ret = createStyle(pdecls, inherited);
+                    setPseudo(p, ret);
+                }
+            }
+            return ret;
+        }
+
+        public void setPseudo(PseudoDeclaration p, NodeData style)
+        {
+            if (pseudo == null)
+                pseudo = new HashMap<PseudoDeclaration, NodeData>();
+            pseudo.put(p, style);
+        }
+    }
+
+}
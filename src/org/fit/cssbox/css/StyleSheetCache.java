@@ -0,0 +1,202 @@
+/*
+ * StyleSheetCache.java
+ * Copyright (c) 2026 Internet Adventure contributors
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fit.cssbox.css;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.vutbr.web.css.CSSException;
+import cz.vutbr.web.css.CSSFactory;
+import cz.vutbr.web.css.RuleBlock;
+import cz.vutbr.web.css.RuleFactory;
+import cz.vutbr.web.css.RuleMedia;
+import cz.vutbr.web.css.RuleSet;
+import cz.vutbr.web.css.StyleSheet;
+import cz.vutbr.web.csskit.antlr.CSSParserFactory;
+import cz.vutbr.web.csskit.antlr.CSSParserFactory.SourceType;
+
+/**
+ * A shared cache of the parsed style sheets. The style sheets are identified by their text
+ * and their base URL, so that the same style sheet used by many documents (e.g. the default
+ * style sheets or the style sheet shared by all the pages of a site) is parsed only once.
+ * The cached style sheets are shared and they must not be modified. The cache may be used
+ * from multiple threads.
+ */
+public class StyleSheetCache
+{
+    /** The maximal number of cached style sheets */
+    public static final int MAX_SHEETS = 64;
+
+    private static final Map<Key, StyleSheet> sheets = new LinkedHashMap<Key, StyleSheet>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, StyleSheet> eldest)
+        {
+            return size() > MAX_SHEETS;
+        }
+    };
+
+    /**
+     * Obtains a parsed style sheet. The text is parsed only when the same text with the same
+     * base URL has not been parsed recently. The <code>@import</code> rules are processed
+     * by the parser, the imported style sheets are not cached separately.
+     * @param css the style sheet text
+     * @param base the base URL used for resolving the relative URLs, may be <code>null</code>
+     * @return the parsed style sheet. It is shared and it must not be modified.
+     * @throws IOException when an imported style sheet cannot be read
+     * @throws CSSException when the style sheet cannot be parsed
+     */
+    public static StyleSheet parse(String css, URL base) throws IOException, CSSException
+    {
+        Key key = new Key(css, base);
+        synchronized (sheets)
+        {
+            StyleSheet ret = sheets.get(key);
+            if (ret != null)
+                return ret;
+        }
+        StyleSheet ret = (StyleSheet) CSSFactory.getRuleFactory().createStyleSheet().unlock();
+        CSSParserFactory.append(css, SourceType.EMBEDDED, ret, base);
+        synchronized (sheets)
+        {
+            sheets.put(key, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Discards all the cached style sheets.
+     */
+    public static void clear()
+    {
+        synchronized (sheets)
+        {
+            sheets.clear();
+        }
+    }
+
+    /**
+     * Puts the rules of a style sheet composed of several parsed style sheets to the order
+     * in which they appear in the style sheet. The order of the rules is given by their priorities
+     * assigned by the parser in the order of parsing. When the style sheets have not been parsed
+     * in the order of their use (e.g. when some of them have been obtained from the cache), the
+     * rules are copied and the priorities are assigned again. The original rules are not modified.
+     * @param sheet the composed style sheet
+     * @return the same style sheet when the rules are ordered properly, a new style sheet otherwise
+     */
+    public static StyleSheet order(StyleSheet sheet)
+    {
+        List<RuleBlock.Priority> prios = new ArrayList<RuleBlock.Priority>();
+        boolean ordered = true;
+        for (RuleBlock<?> rule : sheet)
+        {
+            if (rule instanceof RuleSet || rule instanceof RuleMedia)
+            {
+                ordered = addPriority(prios, rule.getPriority()) && ordered;
+                if (rule instanceof RuleMedia)
+                {
+                    for (RuleSet set : (RuleMedia) rule)
+                        ordered = addPriority(prios, set.getPriority()) && ordered;
+                }
+            }
+        }
+        if (ordered || prios.contains(null))
+            return sheet;
+
+        //assign the same priorities in the order of the rules
+        Collections.sort(prios);
+        Iterator<RuleBlock.Priority> next = prios.iterator();
+        RuleFactory rf = CSSFactory.getRuleFactory();
+        StyleSheet ret = (StyleSheet) rf.createStyleSheet().unlock();
+        for (RuleBlock<?> rule : sheet)
+        {
+            if (rule instanceof RuleSet)
+                ret.add(copySet(rf, (RuleSet) rule, next.next()));
+            else if (rule instanceof RuleMedia)
+            {
+                RuleMedia media = rf.createMedia(next.next());
+                media.unlock();
+                media.setMedia(((RuleMedia) rule).getMedia());
+                for (RuleSet set : (RuleMedia) rule)
+                    media.add(copySet(rf, set, next.next()));
+                ret.add(media);
+            }
+            else
+                ret.add(rule);
+        }
+        return ret;
+    }
+
+    //===================================================================================
+
+    private static boolean addPriority(List<RuleBlock.Priority> prios, RuleBlock.Priority p)
+    {
+        RuleBlock.Priority last = prios.isEmpty() ? null : prios.get(prios.size() - 1);
+        boolean ret = last == null || p == null || last.compareTo(p) < 0;
+        prios.add(p);
+        return ret;
+    }
+
+    private static RuleSet copySet(RuleFactory rf, RuleSet src, RuleBlock.Priority priority)
+    {
+        RuleSet ret = rf.createSet(priority);
+        ret.unlock();
+        ret.setSelectors(src.getSelectors());
+        ret.addAll(src);
+        return ret;
+    }
+
+    /**
+     * The cache key: the style sheet text and the base URL.
+     */
+    private static class Key
+    {
+        private String css;
+        private String base;
+
+        public Key(String css, URL base)
+        {
+            this.css = css;
+            this.base = (base == null) ? "" : base.toExternalForm();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return css.hashCode() * 31 + base.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return css.equals(other.css) && base.equals(other.base);
+        }
+    }
+
+}
@@ -0,0 +1,427 @@
+/*
+ * StyleSheetLoader.java
+ * Copyright (c) 2026 Internet Adventure contributors
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fit.cssbox.css;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import cz.vutbr.web.css.CSSException;
+import cz.vutbr.web.css.CSSFactory;
+import cz.vutbr.web.css.StyleSheet;
+import cz.vutbr.web.csskit.antlr.CSSParserFactory;
+import cz.vutbr.web.csskit.antlr.CSSParserFactory.SourceType;
+
+/**
+ * Loads the style sheets used by a document. All the linked style sheets are found in advance
+ * and they are downloaded at the same time by a limited number of threads. The imported style
+ * sheets are downloaded as soon as the importing style sheet is available. The style sheets
+ * are then parsed in the cascade order, so that the result is the same as when the style sheets
+ * are loaded one after another. The parsed style sheets are shared through the {@link StyleSheetCache}.
+ */
+public class StyleSheetLoader
+{
+    /** The number of threads used for downloading the style sheets */
+    public static final int DEFAULT_THREADS = 4;
+
+    /** A single <code>@import</code> rule at the beginning of a style sheet */
+    private static final Pattern IMPORT = Pattern.compile(
+            "@import\\s*(?:url\\(\\s*(?:\"([^\"]*)\"|'([^']*)'|([^)\\s]*))\\s*\\)|\"([^\"]*)\"|'([^']*)')([^;]*);",
+            Pattern.CASE_INSENSITIVE);
+
+    /** The <code>@charset</code> rule */
+    private static final Pattern CHARSET = Pattern.compile("^@charset\\s*\"([^\"]*)\"\\s*;", Pattern.CASE_INSENSITIVE);
+
+    private static ExecutorService pool = null;
+
+    private URL base;
+    private String media;
+
+    /** The style sheets being downloaded by their URL */
+    private ConcurrentHashMap<String, Future<Source>> downloads;
+
+    /**
+     * Creates a new loader.
+     * @param base the document base URL used for the embedded style sheets
+     * @param media the media type; the style sheets and imports for other media are not loaded
+     */
+    public StyleSheetLoader(URL base, String media)
+    {
+        this.base = base;
+        this.media = media;
+        downloads = new ConcurrentHashMap<String, Future<Source>>();
+    }
+
+    /**
+     * Obtains all the style definitions used by a document: the embedded style sheets,
+     * the linked ones and the inline styles of the elements.
+     * @param root the document root element
+     * @return a style sheet containing all the rules in the cascade order
+     */
+    public StyleSheet getUsedStyles(Element root)
+    {
+        //find all the style definitions and start downloading the linked ones
+        List<Element> defs = new ArrayList<Element>();
+        findStyles(root, defs);
+        for (Element el : defs)
+        {
+            if (isLinkedStyleSheet(el))
+            {
+                try {
+                    request(new URL(base, el.getAttribute("href")), null);
+                } catch (IOException e) {
+                    System.err.println("StyleSheetLoader: I/O Error: " + e.getMessage());
+                }
+            }
+        }
+
+        //parse all of them in the document order
+        StyleSheet sheet = (StyleSheet) CSSFactory.getRuleFactory().createStyleSheet().unlock();
+        for (Element el : defs)
+        {
+            try {
+                if (isEmbeddedStyleSheet(el))
+                    append(sheet, Source.create(getText(el), base, this), new HashSet<String>());
+                else if (isLinkedStyleSheet(el))
+                    append(sheet, new URL(base, el.getAttribute("href")), null, new HashSet<String>());
+                String style = el.getAttribute("style");
+                if (style != null && style.length() > 0)
+                    CSSParserFactory.append(style, SourceType.INLINE, el, sheet, base);
+            } catch (IOException e) {
+                System.err.println("StyleSheetLoader: I/O Error: " + e.getMessage());
+            } catch (CSSException e) {
+                System.err.println("StyleSheetLoader: CSS Error: " + e.getMessage());
+            }
+        }
+        return sheet;
+    }
+
+    /**
+     * Loads a single style sheet including the imported ones.
+     * @param url the style sheet URL
+     * @param encoding the character encoding used when not specified by the style sheet
+     * or the server, <code>null</code> for the default one
+     * @return the style sheet
+     * @throws IOException when the style sheet cannot be read
+     * @throws CSSException when the style sheet cannot be parsed
+     */
+    public StyleSheet load(URL url, String encoding) throws IOException, CSSException
+    {
+        StyleSheet sheet = (StyleSheet) CSSFactory.getRuleFactory().createStyleSheet().unlock();
+        append(sheet, url, encoding, new HashSet<String>());
+        return sheet;
+    }
+
+    //===================================================================================
+
+    /**
+     * Starts downloading a style sheet unless it is already being downloaded.
+     */
+    private Future<Source> request(final URL url, final String encoding)
+    {
+        String key = url.toExternalForm();
+        Future<Source> ret = downloads.get(key);
+        if (ret == null)
+        {
+            FutureTask<Source> task = new FutureTask<Source>(new Callable<Source>() {
+                public Source call() throws Exception
+                {
+                    return Source.create(download(url, encoding), url, StyleSheetLoader.this);
+                }
+            });
+            ret = downloads.putIfAbsent(key, task);
+            if (ret == null) //not requested by another thread in the meantime
+            {
+                getPool().execute(task);
+                ret = task;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Adds the rules of a downloaded style sheet to the resulting style sheet.
+     */
+    private void append(StyleSheet sheet, URL url, String encoding, Set<String> chain) throws IOException, CSSException
+    {
+        String key = url.toExternalForm();
+        if (chain.contains(key))
+            return; //circular import
+        Source src;
+        try {
+            src = request(url, encoding).get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while loading " + url);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            else if (cause instanceof CSSException)
+                throw (CSSException) cause;
+            else
+                throw new IOException(url + ": " + cause);
+        }
+        chain.add(key);
+        append(sheet, src, chain);
+        chain.remove(key);
+    }
+
+    /**
+     * Adds the rules of the imported style sheets and then the rules of the style sheet itself.
+     */
+    private void append(StyleSheet sheet, Source src, Set<String> chain) throws IOException, CSSException
+    {
+        for (URL imp : src.imports)
+        {
+            try {
+                append(sheet, imp, null, chain);
+            } catch (IOException e) {
+                System.err.println("StyleSheetLoader: Cannot import " + imp + ": " + e.getMessage());
+            }
+        }
+        sheet.addAll(StyleSheetCache.parse(src.text, src.base));
+    }
+
+    /**
+     * Checks whether an import with the given media list applies to the current media.
+     */
+    private boolean isAllowedMedia(String list)
+    {
+        list = list.trim().toLowerCase();
+        if (list.length() == 0)
+            return true;
+        for (String m : list.split(","))
+        {
+            m = m.trim();
+            if (m.equals("all") || m.equals(media))
+                return true;
+        }
+        return false;
+    }
+
+    private static synchronized ExecutorService getPool()
+    {
+        if (pool == null)
+        {
+            pool = Executors.newFixedThreadPool(DEFAULT_THREADS, new ThreadFactory() {
+                private int cnt = 0;
+                public synchronized Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "StyleSheetLoader-" + (cnt++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    //===================================================================================
+
+    private void findStyles(Element el, List<Element> dest)
+    {
+        if (isEmbeddedStyleSheet(el) || isLinkedStyleSheet(el) || el.getAttribute("style").length() > 0)
+            dest.add(el);
+        NodeList child = el.getChildNodes();
+        for (int i = 0; i < child.getLength(); i++)
+        {
+            if (child.item(i).getNodeType() == Node.ELEMENT_NODE)
+                findStyles((Element) child.item(i), dest);
+        }
+    }
+
+    private boolean isEmbeddedStyleSheet(Element el)
+    {
+        return "style".equalsIgnoreCase(el.getNodeName()) && isAllowedMedia(el);
+    }
+
+    private boolean isLinkedStyleSheet(Element el)
+    {
+        return el.getNodeName().equals("link")
+               && "stylesheet".equalsIgnoreCase(el.getAttribute("rel"))
+               && "text/css".equalsIgnoreCase(el.getAttribute("type"))
+               && isAllowedMedia(el);
+    }
+
+    private boolean isAllowedMedia(Element el)
+    {
+        String list = el.getAttribute("media");
+        return list == null || list.length() == 0 || list.contains(media) || list.contains("all");
+    }
+
+    private static String getText(Element el)
+    {
+        Node n = el.getFirstChild();
+        if (n != null && n.getNodeType() == Node.TEXT_NODE)
+            return n.getNodeValue();
+        else
+            return "";
+    }
+
+    /**
+     * Downloads and decodes a style sheet.
+     */
+    private static String download(URL url, String encoding) throws IOException
+    {
+        URLConnection con = url.openConnection();
+        InputStream in = con.getInputStream();
+        byte[] data;
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            byte[] b = new byte[8192];
+            int n;
+            while ((n = in.read(b)) != -1)
+                buf.write(b, 0, n);
+            data = buf.toByteArray();
+        } finally {
+            in.close();
+        }
+
+        //the encoding: @charset, HTTP header, the given one or the default one
+        String cs = null;
+        String head = new String(data, 0, Math.min(data.length, 128), "ISO-8859-1");
+        if (head.startsWith("\u00ef\u00bb\u00bf"))
+            cs = "UTF-8";
+        else
+        {
+            Matcher m = CHARSET.matcher(head);
+            if (m.find())
+                cs = m.group(1);
+        }
+        if (cs == null && con.getContentType() != null)
+        {
+            String type = con.getContentType().toLowerCase();
+            int i = type.indexOf("charset=");
+            if (i != -1)
+                cs = type.substring(i + 8).replace("\"", "").trim();
+        }
+        if (cs == null)
+            cs = encoding;
+        if (cs == null || !Charset.isSupported(cs))
+            cs = Charset.defaultCharset().name();
+        String ret = new String(data, cs);
+        if (ret.startsWith("\ufeff"))
+            ret = ret.substring(1);
+        return ret;
+    }
+
+    //===================================================================================
+
+    /**
+     * A style sheet text with the imports separated.
+     */
+    private static class Source
+    {
+        /** The style sheet base URL */
+        public URL base;
+        /** The style sheet text without the <code>@charset</code> and <code>@import</code> rules */
+        public String text;
+        /** The imported style sheets in the order of the import rules */
+        public List<URL> imports;
+
+        /**
+         * Separates the imports of a style sheet and starts downloading the imported style sheets.
+         * @param text the style sheet text
+         * @param base the style sheet base URL
+         * @param loader the loader used for the imported style sheets
+         * @return the style sheet source
+         */
+        public static Source create(String text, URL base, StyleSheetLoader loader)
+        {
+            Source ret = new Source();
+            ret.base = base;
+            ret.imports = new ArrayList<URL>();
+            //the imports may be preceded by the charset, white space and comments only
+            int pos = 0;
+            Matcher cs = CHARSET.matcher(text);
+            if (cs.find())
+                pos = cs.end();
+            Matcher m = IMPORT.matcher(text);
+            while (true)
+            {
+                pos = skipSpace(text, pos);
+                m.region(pos, text.length());
+                if (!m.lookingAt())
+                    break;
+                String href = null;
+                for (int i = 1; i <= 5 && href == null; i++)
+                    href = m.group(i);
+                if (loader.isAllowedMedia(m.group(6)))
+                {
+                    try {
+                        URL url = (base == null) ? new URL(href.trim()) : new URL(base, href.trim());
+                        ret.imports.add(url);
+                        loader.request(url, null);
+                    } catch (IOException e) {
+                        System.err.println("StyleSheetLoader: Invalid import " + href + ": " + e.getMessage());
+                    }
+                }
+                pos = m.end();
+            }
+            ret.text = text.substring(pos);
+            return ret;
+        }
+
+        /**
+         * Skips the white space, comments and the SGML comment delimiters.
+         */
+        private static int skipSpace(String text, int pos)
+        {
+            while (pos < text.length())
+            {
+                if (Character.isWhitespace(text.charAt(pos)))
+                    pos++;
+                else if (text.startsWith("<!--", pos))
+                    pos += 4;
+                else if (text.startsWith("-->", pos))
+                    pos += 3;
+                else if (text.startsWith("/*", pos))
+                {
+                    int end = text.indexOf("*/", pos + 2);
+                    pos = (end == -1) ? text.length() : end + 2;
+                }
+                else
+                    break;
+            }
+            return pos;
+        }
+    }
+
+}
@@ -22,6 +22,8 @@ package org.fit.cssbox.demo;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
 
 import org.apache.xerces.parsers.DOMParser;
 import org.cyberneko.html.HTMLConfiguration;
@@ -32,10 +34,21 @@ import org.xml.sax.SAXException;
  * An abstraction of a parser that is able to obtain a DOM. Shared by all the
  * demos.
  * 
+ * <p>The configured parsers are kept in a pool and reused for the following documents,
+ * so that the parser configuration and its symbol table are created only once.
+ * 
  * @author burgetr
  */
 public class DOMSource
 {
+    /** The maximal number of the idle parsers kept in the pool */
+    private static final int MAX_POOLED = 4;
+    
+    /** The encoding used when no charset is known, the NekoHTML default */
+    private static final String DEFAULT_ENCODING = "Windows-1252";
+    
+    private static final LinkedList<DOMParser> pool = new LinkedList<DOMParser>();
+    
     private InputStream is;
     private Document doc;
     private String charset;
@@ -50,6 +63,12 @@ public class DOMSource
         return is;
     }
 
+    /**
+     * Sets the content type of the document (e.g. obtained from the HTTP <code>Content-Type</code>
+     * header). When it specifies a supported charset, the document is decoded using this charset
+     * and the charset specified in the document itself is ignored.
+     * @param type the content type or <code>null</code> when not known
+     */
     public void setContentType(String type)
     {
         if (type != null)
@@ -64,23 +83,73 @@ public class DOMSource
                 int stop = t.indexOf(';', strt);
                 if (stop == -1)
                     stop = t.length();
-                charset = t.substring(strt, stop).trim();
+                String cs = t.substring(strt, stop).trim();
+                if (cs.length() > 1 && cs.startsWith("\"") && cs.endsWith("\""))
+                    cs = cs.substring(1, cs.length() - 1);
+                try {
+                    if (Charset.isSupported(cs))
+                        charset = cs;
+                } catch (IllegalArgumentException e) {
+                    //illegal charset name, the document will be checked
+                }
             }
         }
     }
 
     public Document parse() throws SAXException, IOException
     {
+        DOMParser parser = obtainParser();
+        try
+        {
+            if (charset != null)
+            {
+                parser.setProperty("http://cyberneko.org/html/properties/default-encoding", charset);
+                parser.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset", true);
+            }
+            else
+            {
+                parser.setProperty("http://cyberneko.org/html/properties/default-encoding", DEFAULT_ENCODING);
+                parser.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset", false);
+            }
+            parser.parse(new org.xml.sax.InputSource(is));
+            doc = parser.getDocument();
+        }
+        finally
+        {
+            //the parser is reset by the next parse(), only the document must not be kept
+            parser.dropDocumentReferences();
+            releaseParser(parser);
+        }
+        return doc;
+    }
+    
+    /**
+     * Obtains a configured parser from the pool or creates a new one when the pool is empty.
+     */
+    private static DOMParser obtainParser() throws SAXException
+    {
+        synchronized (pool)
+        {
+            if (!pool.isEmpty())
+                return pool.removeFirst();
+        }
         DOMParser parser = new DOMParser(new HTMLConfiguration());
         parser.setProperty("http://cyberneko.org/html/properties/names/elems", "lower");
         //parser.setProperty("http://cyberneko.org/html/features/balance-tags/ignore-outside-content", true);
         parser.setFeature("http://cyberneko.org/html/features/scanner/allow-selfclosing-tags", true);
-        parser.setProperty("http://cyberneko.org/html/properties/names/elems", "lower");
-        if (charset != null)
-            parser.setProperty("http://cyberneko.org/html/properties/default-encoding", charset);
-        parser.parse(new org.xml.sax.InputSource(is));
-        doc = parser.getDocument();
-        return doc;
+        return parser;
+    }
+    
+    /**
+     * Returns a parser that is not used any more to the pool.
+     */
+    private static void releaseParser(DOMParser parser)
+    {
+        synchronized (pool)
+        {
+            if (pool.size() < MAX_POOLED)
+                pool.addFirst(parser);
+        }
     }
 
 }
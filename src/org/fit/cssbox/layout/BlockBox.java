@@ -21,8 +21,11 @@
 package org.fit.cssbox.layout;
 
 import java.awt.*;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinTask;
 
 import cz.vutbr.web.css.*;
 
@@ -118,6 +121,14 @@ public class BlockBox extends InlineBox
      * and the width shouldn't be changed anymore */
     protected boolean widthComputed = false;
     
+    /** The width that was available for the box when it was laid out as a floating
+     * or positioned box. The box may be laid out again with the same width without
+     * laying out its parent. */
+    protected int independentAvailw;
+    
+    /** The layouts of the positioned child boxes running in parallel, <code>null</code> when there are none */
+    private List<ForkJoinTask<?>> pendingLayouts;
+    
     /** Originally declared margin. This property saves the original values
      * where the efficient left and right margin may
      * be computed from the containing box */
@@ -273,6 +284,15 @@ public class BlockBox extends InlineBox
         setFloats(new FloatList(this), new FloatList(this), 0, 0, 0);
     }
 
+    @Override
+    protected void resetBox()
+    {
+        clearSplitted();
+        super.resetBox();
+        setFloats(new FloatList(this), new FloatList(this), 0, 0, 0);
+        widthComputed = false;
+    }
+
     @Override
     public void addSubBox(Box box)
     {
@@ -561,6 +581,32 @@ public class BlockBox extends InlineBox
         super.moveDown(ofs);
         if (isInFlow())
             moveFloatsDown(ofs);
+        if (fown != null)
+            fown.update(this);
+    }
+    
+    @Override
+    public void moveRight(int ofs)
+    {
+        super.moveRight(ofs);
+        if (fown != null)
+            fown.update(this);
+    }
+    
+    @Override
+    public void setPosition(int x, int y)
+    {
+        super.setPosition(x, y);
+        if (fown != null)
+            fown.update(this);
+    }
+    
+    @Override
+    public void setSize(int w, int h)
+    {
+        super.setSize(w, h);
+        if (fown != null)
+            fown.update(this);
     }
 
    //========================================================================
@@ -902,7 +948,7 @@ public class BlockBox extends InlineBox
                     }
                     else if (subbox.getRest() != null) //something fit but not everything placed
                     {
-                   		insertSubBox(i+1, subbox.getRest()); //insert a new subbox with the rest
+                   		insertSplitRest(i+1, subbox.getRest()); //insert a new subbox with the rest
                         lnstr = i+1; //new line starts with the next subbox
                         curline.setEnd(lnstr); //finish the old line
                         curline = new LineBox(this, lnstr, y); //create the new line 
@@ -915,6 +961,7 @@ public class BlockBox extends InlineBox
             if (subbox.canSplitAfter())
             	lastbreak = i+1;
        }
+        finishPositionedLayouts();
         
         //block width
         if (someinflow)
@@ -1041,7 +1088,7 @@ public class BlockBox extends InlineBox
                     stat.y = borderY - subbox.margin.top; //place the border edge appropriately
                     layoutBlockInFlow(subbox, wlimit, stat);
                     if (subbox.getRest() != null) //not everything placed -- insert the rest to the queue
-                        insertSubBox(i+1, subbox.getRest());
+                        insertSplitRest(i+1, subbox.getRest());
                     nexty = stat.y; //the flow influences current y
                 }
                 else if (subbox.getFloating() == FLOAT_LEFT || subbox.getFloating() == FLOAT_RIGHT) //floating boxes
@@ -1056,6 +1103,7 @@ public class BlockBox extends InlineBox
                 stat.y = nexty;
             }
         }
+        finishPositionedLayouts();
 
         //collapse bottom margins
         if (!separatedFromBottom(this))
@@ -1115,6 +1163,7 @@ public class BlockBox extends InlineBox
     protected void layoutBlockFloating(BlockBox subbox, int wlimit, BlockLayoutStatus stat)
     {
         subbox.setFloats(new FloatList(subbox), new FloatList(subbox), 0, 0, 0);
+        subbox.independentAvailw = wlimit;
         subbox.doLayout(wlimit, true, true);
         FloatList f = (subbox.getFloating() == FLOAT_LEFT) ? fleft : fright;    //float list at my side
         FloatList of = (subbox.getFloating() == FLOAT_LEFT) ? fright : fleft;   //float list at the opposite side
@@ -1175,7 +1224,45 @@ public class BlockBox extends InlineBox
     {
         //layout the contents
         subbox.setFloats(new FloatList(subbox), new FloatList(subbox), 0, 0, 0);
-        subbox.doLayout(wlimit, true, true);
+        subbox.independentAvailw = wlimit;
+        if (viewport != null && viewport.isParallelLayout())
+        {
+            //the positioned box doesn't influence the remaining boxes, it may be finished in parallel
+            if (pendingLayouts == null)
+                pendingLayouts = new ArrayList<ForkJoinTask<?>>();
+            pendingLayouts.add(ParallelLayout.startLayout(subbox, wlimit));
+        }
+        else
+            subbox.doLayout(wlimit, true, true);
+    }
+    
+    /**
+     * Waits until the layouts of the positioned boxes started in parallel by
+     * {@link #layoutBlockPositioned(BlockBox, int, BlockLayoutStatus)} are finished.
+     */
+    protected void finishPositionedLayouts()
+    {
+        if (pendingLayouts != null)
+        {
+            for (ForkJoinTask<?> task : pendingLayouts)
+                task.join();
+            pendingLayouts = null;
+        }
+    }
+    
+    /**
+     * Lays out a floating or positioned box again using the same available width as in the
+     * last layout of its parent. The position of the box is preserved. This may be used
+     * when only the contents of the box have changed.
+     */
+    public void layoutIndependently()
+    {
+        resetSubtree();
+        setFloats(new FloatList(this), new FloatList(this), 0, 0, 0);
+        doLayout(independentAvailw, true, true);
+        if (fown != null)
+            fown.update(this); //the size may have changed
+        absolutePositions();
     }
     
     @Override
@@ -1296,7 +1383,8 @@ public class BlockBox extends InlineBox
      * Computes the minimal width of the box content from the contained sub-boxes.
      * @return the minimal content width
      */
-    protected int getMinimalContentWidth()
+    @Override
+    protected int computeMinimalContentWidth()
     {
         int ret = 0;
         for (int i = startChild; i < endChild; i++)
@@ -1338,7 +1426,8 @@ public class BlockBox extends InlineBox
      * Computes the maximal width of the box content from the contained sub-boxes.
      * @return the maximal content width
      */
-    protected int getMaximalContentWidth()
+    @Override
+    protected int computeMaximalContentWidth()
     {
         int sum = 0;
         int max = 0;
@@ -1454,7 +1543,7 @@ public class BlockBox extends InlineBox
     public void draw(Graphics2D g, int turn, int mode)
     {
         ctx.updateGraphics(g);
-        if (isDisplayed() && isDeclaredVisible())
+        if (isDisplayed() && isDeclaredVisible() && isSubtreeInDrawArea())
         {
             Shape oldclip = g.getClip();
             g.setClip(clipblock.getAbsoluteContentBounds());
@@ -155,7 +155,7 @@ public class BlockTableBox extends BlockBox
     }
     
     @Override
-    protected int getMaximalContentWidth()
+    protected int computeMaximalContentWidth()
     {
         if (caption == null)
             return table.getMaximalContentWidth();
@@ -164,7 +164,7 @@ public class BlockTableBox extends BlockBox
     }
 
     @Override
-    protected int getMinimalContentWidth()
+    protected int computeMinimalContentWidth()
     {
         if (caption == null)
             return table.getMinimalContentWidth();
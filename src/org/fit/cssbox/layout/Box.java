@@ -168,6 +168,23 @@ abstract public class Box
         initBox(); //default implementation - just initialize this box
     }
     
+    /**
+     * Resets the box state that depends on the previous layout. Called from {@link #resetSubtree()}.
+     */
+    protected void resetBox()
+    {
+    }
+    
+    /**
+     * Prepares an already initialized box and the corresponding subtree (if any) for a new layout,
+     * e.g. when the viewport size changes. The sizes are computed again while the organization
+     * of the subtree created by {@link #initSubtree()} is preserved.
+     */
+    public void resetSubtree()
+    {
+        resetBox(); //default implementation - just reset this box
+    }
+    
     /**
      * Initializes a box in order to be a proper child box of the specified parent. Copies
      * all the necessary information from the parent.
@@ -283,6 +300,26 @@ abstract public class Box
         return visible && clipblock.absbounds.intersects(absbounds) && clipblock.isVisible();
     }
     
+    /**
+     * Checks if the box lies in the area that is being currently drawn, see {@link Viewport#draw(Graphics2D, Rectangle)}.
+     * The child boxes may still overflow the box so this is only used for skipping the box's own content.
+     * @return <code>true</code> if the box has to be drawn
+     */
+    protected boolean isInDrawArea()
+    {
+        return viewport == null || viewport.isInDrawArea(absbounds);
+    }
+    
+    /**
+     * Checks if the box or any of its descendants lies in the area that is being currently drawn,
+     * see {@link Viewport#draw(Graphics2D, Rectangle)}.
+     * @return <code>false</code> if the whole subtree may be skipped
+     */
+    protected boolean isSubtreeInDrawArea()
+    {
+        return viewport == null || viewport.isSubtreeInDrawArea(this);
+    }
+    
     /**
      * Checks if the box has visibility property set to visible.
      * @return <code>true</code>, if this element has the 'visibility' property set to 'visible'
@@ -22,6 +22,10 @@ package org.fit.cssbox.layout;
 
 import java.awt.Graphics2D;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Vector;
 
@@ -69,6 +73,12 @@ public class BoxFactory
 
     protected int next_order;
     
+    /** The first element box created for each DOM node */
+    private IdentityHashMap<Node, ElementBox> nodeBoxes;
+    
+    /** The element boxes by the lower-case element names in the order of creation */
+    private HashMap<String, ArrayList<ElementBox>> nameBoxes;
+    
     /**
      * Create a new factory. From this point, the new factory will be accessible using the {@link #getInstance()} method.
      * @param decoder The CSS decoder used for obtaining the DOM styles.
@@ -79,6 +89,8 @@ public class BoxFactory
         this.decoder = decoder;
         this.baseurl = baseurl;
         this.next_order = 0;
+        nodeBoxes = new IdentityHashMap<Node, ElementBox>();
+        nameBoxes = new HashMap<String, ArrayList<ElementBox>>();
         instance = this;
     }
     
@@ -121,6 +133,81 @@ public class BoxFactory
     public void reset()
     {
         next_order = 0;
+        nodeBoxes.clear();
+        nameBoxes.clear();
+    }
+    
+    /**
+     * Obtains the number of boxes created since the last {@link #reset()}.
+     * @return the number of created boxes
+     */
+    public int getBoxCount()
+    {
+        return next_order;
+    }
+    
+    /**
+     * Obtains the element box created for a DOM node. When the box has been split (e.g. an inline
+     * box containing a block), the first part is returned.
+     * @param node the DOM node
+     * @return the element box or <code>null</code> when no box has been created for the node
+     */
+    public ElementBox getElementBox(Node node)
+    {
+        return nodeBoxes.get(node);
+    }
+    
+    /**
+     * Obtains the element boxes created for the elements with the given name.
+     * @param name the element name (case insensitive)
+     * @return the list of the boxes in the order of creation. The list must not be modified.
+     */
+    public List<ElementBox> getElementBoxes(String name)
+    {
+        List<ElementBox> ret = nameBoxes.get(name.toLowerCase());
+        if (ret == null)
+            return new ArrayList<ElementBox>(0);
+        else
+            return ret;
+    }
+    
+    /**
+     * Registers a newly created element box so that it can be found by its node or element name.
+     * Only the first box created for each node is registered.
+     */
+    private void registerBox(ElementBox box)
+    {
+        Element e = box.getElement();
+        if (e != null && !nodeBoxes.containsKey(e))
+        {
+            nodeBoxes.put(e, box);
+            String name = e.getNodeName().toLowerCase();
+            ArrayList<ElementBox> list = nameBoxes.get(name);
+            if (list == null)
+            {
+                list = new ArrayList<ElementBox>();
+                nameBoxes.put(name, list);
+            }
+            list.add(box);
+        }
+    }
+    
+    /**
+     * Removes a box that has not been used in the tree and its subtree from the registered boxes.
+     */
+    private void unregisterBox(Box box)
+    {
+        if (box instanceof ElementBox)
+        {
+            ElementBox el = (ElementBox) box;
+            if (nodeBoxes.get(el.getNode()) == el)
+            {
+                nodeBoxes.remove(el.getNode());
+                nameBoxes.get(el.getNode().getNodeName().toLowerCase()).remove(el);
+            }
+            for (int i = 0; i < el.getSubBoxNumber(); i++)
+                unregisterBox(el.getSubBox(i));
+        }
     }
     
     /**
@@ -343,6 +430,8 @@ public class BoxFactory
                 stat.parent.addSubBox(newbox);
                 stat.lastinflow = newbox;
             }
+            else
+                unregisterBox(newbox);
         }
         
         //Recursively process the eventual boxes that should be added tohether with the new box
@@ -370,7 +459,10 @@ public class BoxFactory
                     if (!subbox.isBlock() && subbox.collapsesSpaces())
                     {
                         if (subbox.isWhitespace())
+                        {
                             it.remove();
+                            unregisterBox(subbox);
+                        }
                         else if (subbox instanceof ElementBox) //TODO: text boxes too?
                             removeTrailingWhitespaces((ElementBox) subbox);
                     }
@@ -625,6 +717,7 @@ public class BoxFactory
             anbox.setParent(parent);
         }
         anbox.setOrder(next_order++);
+        registerBox(anbox);
         anbox.isempty = true;
         anbox.setBase(child.getBase());
         anbox.setViewport(child.getViewport());
@@ -667,6 +760,7 @@ public class BoxFactory
         root.setViewport(viewport);
         root.setParent(parent);
         root.setOrder(next_order++);
+        registerBox(root);
         return root;
     }
 
@@ -0,0 +1,237 @@
+/*
+ * BoxIndex.java
+ * Copyright (c) 2026 Internet Adventure contributors
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fit.cssbox.layout;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A spatial index of the absolute box positions used for locating the boxes on the page.
+ * The page is divided to a uniform grid and each box is registered in the cells it covers.
+ * Boxes that cover too many cells (e.g. the page body) are kept in a separate list that is
+ * always checked. For each element box, the index also keeps the bounds of its whole subtree
+ * so that the subtrees lying outside of a drawn area may be skipped. The index is created
+ * for a finished layout (after the absolute positions have been computed) and it must be
+ * created again when the layout changes.
+ */
+public class BoxIndex
+{
+    /** Grid cell size in pixels */
+    private static final int CELL_SIZE = 128;
+
+    /** Boxes covering more cells are not registered in the grid */
+    private static final int MAX_CELLS = 64;
+
+    private Box[] boxes; //all the boxes in the document order
+    private long[] areas; //areas of the boxes
+    private int cols;
+    private int rows;
+    private int[][] cells; //box indices for each cell
+    private int[] large; //indices of the boxes that are not in the grid
+    private Map<Box, Rectangle> subtrees; //bounds of the subtrees of the element boxes
+
+    /**
+     * Creates the index for all the boxes of a laid out tree.
+     * @param root the root of the box tree (usually the viewport)
+     */
+    public BoxIndex(Box root)
+    {
+        ArrayList<Box> list = new ArrayList<Box>();
+        subtrees = new HashMap<Box, Rectangle>();
+        collectBoxes(root, list);
+        boxes = list.toArray(new Box[list.size()]);
+        areas = new long[boxes.length];
+
+        int maxx = 0;
+        int maxy = 0;
+        for (int i = 0; i < boxes.length; i++)
+        {
+            Rectangle r = boxes[i].getAbsoluteBounds();
+            areas[i] = (long) r.width * r.height;
+            if (r.x + r.width > maxx) maxx = r.x + r.width;
+            if (r.y + r.height > maxy) maxy = r.y + r.height;
+        }
+        cols = maxx / CELL_SIZE + 1;
+        rows = maxy / CELL_SIZE + 1;
+
+        //count the boxes per cell first in order to allocate exact arrays
+        int[] counts = new int[cols * rows];
+        int nlarge = 0;
+        for (int i = 0; i < boxes.length; i++)
+        {
+            if (isLarge(boxes[i].getAbsoluteBounds()))
+                nlarge++;
+            else
+                forCells(boxes[i].getAbsoluteBounds(), counts, null, i);
+        }
+        cells = new int[cols * rows][];
+        for (int c = 0; c < cells.length; c++)
+            cells[c] = new int[counts[c]];
+        large = new int[nlarge];
+
+        int[] fill = new int[cols * rows];
+        nlarge = 0;
+        for (int i = 0; i < boxes.length; i++)
+        {
+            if (isLarge(boxes[i].getAbsoluteBounds()))
+                large[nlarge++] = i;
+            else
+                forCells(boxes[i].getAbsoluteBounds(), fill, cells, i);
+        }
+    }
+
+    /**
+     * Finds the smallest box that contains the given point.
+     * @param x the absolute x coordinate
+     * @param y the absolute y coordinate
+     * @return the smallest box containing the point or <code>null</code> when there is no such box
+     */
+    public Box locateBox(int x, int y)
+    {
+        int best = -1;
+        if (x >= 0 && y >= 0 && x / CELL_SIZE < cols && y / CELL_SIZE < rows)
+        {
+            int[] cell = cells[(y / CELL_SIZE) * cols + x / CELL_SIZE];
+            for (int i = 0; i < cell.length; i++)
+                best = better(cell[i], best, x, y);
+        }
+        for (int i = 0; i < large.length; i++)
+            best = better(large[i], best, x, y);
+        return (best == -1) ? null : boxes[best];
+    }
+
+    /**
+     * Finds the nearest element box with the given element name that contains the smallest
+     * box at the given point, e.g. the link at the mouse position.
+     * @param x the absolute x coordinate
+     * @param y the absolute y coordinate
+     * @param name the element name (case insensitive)
+     * @return the enclosing element box or <code>null</code> when there is no such box
+     */
+    public ElementBox locateEnclosing(int x, int y, String name)
+    {
+        Box box = locateBox(x, y);
+        ElementBox el = (box instanceof ElementBox) ? (ElementBox) box : (box == null ? null : box.getParent());
+        while (el != null)
+        {
+            if (el.getElement().getNodeName().equalsIgnoreCase(name))
+                return el;
+            el = el.getParent();
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether a box or any of its descendants intersects the given area. The boxes
+     * that have been created after the index are assumed to intersect the area.
+     * @param box the box to be checked
+     * @param area the area (absolute coordinates)
+     * @return <code>false</code> when neither the box nor its descendants intersect the area
+     */
+    public boolean intersectsSubtree(Box box, Rectangle area)
+    {
+        Rectangle r = subtrees.get(box);
+        return r == null || r.intersects(area);
+    }
+
+    /**
+     * @return the number of indexed boxes
+     */
+    public int size()
+    {
+        return boxes.length;
+    }
+
+    //===================================================================================
+
+    /**
+     * Chooses the better candidate for a point. The smaller box wins, for the same size
+     * the box that comes first in the document order is used.
+     */
+    private int better(int i, int best, int x, int y)
+    {
+        if (boxes[i].getAbsoluteBounds().contains(x, y))
+        {
+            if (best == -1 || areas[i] < areas[best] || (areas[i] == areas[best] && i < best))
+                return i;
+        }
+        return best;
+    }
+
+    private boolean isLarge(Rectangle r)
+    {
+        long w = r.width / CELL_SIZE + 2;
+        long h = r.height / CELL_SIZE + 2;
+        return w * h > MAX_CELLS;
+    }
+
+    /**
+     * Either counts the box in all the covered cells or stores it there.
+     */
+    private void forCells(Rectangle r, int[] counts, int[][] dest, int index)
+    {
+        int x1 = Math.max(0, r.x / CELL_SIZE);
+        int y1 = Math.max(0, r.y / CELL_SIZE);
+        int x2 = Math.min(cols - 1, (r.x + r.width - 1) / CELL_SIZE);
+        int y2 = Math.min(rows - 1, (r.y + r.height - 1) / CELL_SIZE);
+        for (int cy = y1; cy <= y2; cy++)
+            for (int cx = x1; cx <= x2; cx++)
+            {
+                int c = cy * cols + cx;
+                if (dest != null)
+                    dest[c][counts[c]] = index;
+                counts[c]++;
+            }
+    }
+
+    /**
+     * Collects the boxes of a subtree in the document order.
+     * @return the bounds of the subtree (empty when no box of the subtree has a non-zero size)
+     */
+    private Rectangle collectBoxes(Box root, ArrayList<Box> list)
+    {
+        Rectangle r = root.getAbsoluteBounds();
+        Rectangle ret = new Rectangle();
+        if (r.width > 0 && r.height > 0)
+        {
+            list.add(root);
+            ret.setBounds(r);
+        }
+        if (root instanceof ElementBox)
+        {
+            ElementBox el = (ElementBox) root;
+            for (int i = el.getStartChild(); i < el.getEndChild(); i++)
+            {
+                Rectangle sub = collectBoxes(el.getSubBox(i), list);
+                if (!sub.isEmpty())
+                {
+                    if (ret.isEmpty())
+                        ret.setBounds(sub);
+                    else
+                        ret.add(sub);
+                }
+            }
+            subtrees.put(root, ret);
+        }
+        return ret;
+    }
+
+}
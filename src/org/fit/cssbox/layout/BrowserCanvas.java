@@ -23,6 +23,7 @@ package org.fit.cssbox.layout;
 import java.awt.*;
 import java.awt.image.*;
 import java.net.URL;
+import java.util.Collection;
 
 import javax.swing.*;
 import org.w3c.dom.*;
@@ -31,8 +32,8 @@ import org.fit.cssbox.css.DOMAnalyzer;
 
 /**
  * This class provides an abstraction of a browser rendering area and the main layout engine
- * interface. Afrer the layout, a document image is created by drawing all the boxes and it
- * is drawn on the component.
+ * interface. Afrer the layout, the document is drawn in tiles when the corresponding part of
+ * the page becomes visible and the tiles are drawn on the component.
  * 
  * @author  burgetr
  */
@@ -40,12 +41,28 @@ public class BrowserCanvas extends JPanel
 {
 	private static final long serialVersionUID = -8715215920271505397L;
 
+	/** The number of tiles kept for a page unless more tiles are visible at once */
+	private static final int MAX_TILES = 96;
+	
+	/** The tiles around the visible area that are drawn in advance (in tiles) */
+	private static final int PREFETCH_MARGIN = 1;
+
 	protected Element root;
     protected DOMAnalyzer decoder;
     protected URL baseurl;
     protected Viewport viewport;
 
-    protected BufferedImage img;
+    protected TileCache tiles;
+    private boolean prefetchPending = false;
+    
+    /** The viewport size used for the current layout */
+    private Dimension layoutSize;
+    
+    /** Collects the boxes whose size changes after the layout, e.g. when the images are loaded */
+    private ReflowScheduler reflows = new ReflowScheduler(this, ReflowScheduler.DEFAULT_INTERVAL);
+    
+    /** Lay out the independent parts of the documents in parallel */
+    private boolean parallelLayout = false;
     
     /** 
      * Creates a new instance of the browser engine.for a document
@@ -74,12 +91,129 @@ public class BrowserCanvas extends JPanel
             DOMAnalyzer decoder,
             Dimension dim, URL baseurl)
 	{
+	cancelImages();
 	this.root = root;
 	this.decoder = decoder;
 	this.baseurl = baseurl;
 	createLayout(dim);
 	}
     
+    /**
+     * Puts back a document that has already been laid out and drawn, e.g. when returning
+     * to a page in the history. Nothing is parsed or laid out again.
+     * @param root the &lt;body&gt; element of the document
+     * @param decoder the CSS decoder used to compute the style
+     * @param baseurl the document base URL
+     * @param viewport the viewport created for the document
+     * @param dim the viewport size used for the layout
+     */
+    public void restore(org.w3c.dom.Element root,
+            DOMAnalyzer decoder,
+            URL baseurl, Viewport viewport, Dimension dim)
+    {
+        cancelImages();
+        this.root = root;
+        this.decoder = decoder;
+        this.baseurl = baseurl;
+        this.viewport = viewport;
+        this.factory = viewport.getFactory();
+        viewport.setCanvas(this);
+        viewport.setParallelLayout(parallelLayout);
+        layoutSize = new Dimension(dim);
+        createTiles(dim);
+        repaint();
+    }
+    
+    /**
+     * Stops loading the images of the current document, e.g. when another document is going
+     * to be displayed. The images that are displayed later are requested again.
+     */
+    public void cancelImages()
+    {
+        if (root != null)
+            ImageLoader.getInstance().cancel(root.getOwnerDocument());
+        reflows.cancel();
+    }
+    
+    /**
+     * @return <code>true</code> when the parallel layout is used
+     */
+    public boolean isParallelLayout()
+    {
+        return parallelLayout;
+    }
+    
+    /**
+     * Enables or disables the parallel layout of the independent parts of the documents
+     * (see {@link Viewport#setParallelLayout(boolean)}). The setting applies to the following layouts
+     * of the current document and of the documents displayed later.
+     * @param parallelLayout <code>true</code> for the parallel layout
+     */
+    public void setParallelLayout(boolean parallelLayout)
+    {
+        this.parallelLayout = parallelLayout;
+        if (viewport != null)
+            viewport.setParallelLayout(parallelLayout);
+    }
+    
+    /**
+     * Requests updating the layout after the intrinsic size of a replaced box has changed.
+     * The changes reported within a short interval are processed together.
+     * @param viewport the viewport the box belongs to
+     * @param box the changed box
+     */
+    public void scheduleReflow(Viewport viewport, ElementBox box)
+    {
+        reflows.schedule(viewport, box);
+    }
+    
+    /**
+     * Updates the layout after the intrinsic size of some replaced boxes has changed. When the boxes
+     * are contained in floating or positioned blocks, only these blocks are laid out and redrawn.
+     * Otherwise, the whole box tree is laid out again.
+     * @param viewport the viewport the boxes belong to
+     * @param boxes the changed boxes
+     */
+    public void reflow(Viewport viewport, Collection<ElementBox> boxes)
+    {
+        if (viewport != this.viewport)
+            return; //the viewport is not displayed anymore
+        int w = viewport.getWidth();
+        int h = viewport.getHeight();
+        Rectangle area = viewport.reflow(boxes);
+        if (area == null)
+        {
+            updateLayout(layoutSize);
+            repaint();
+        }
+        else if (!area.isEmpty())
+        {
+            if (viewport.getWidth() != w || viewport.getHeight() != h)
+            {
+                createTiles(layoutSize);
+                repaint();
+            }
+            else
+                redrawArea(area);
+        }
+    }
+    
+    /**
+     * @return the root element of the rendered document
+     */
+    public Element getRootElement()
+    {
+        return root;
+    }
+    
+    /**
+     * @return the CSS decoder used to compute the style of the rendered document
+     */
+    public DOMAnalyzer getDecoder()
+    {
+        return decoder;
+    }
+    
     /**
      * After creating the layout, the root box of the document can be accessed through this method.
      * @return the root box of the rendered document. Normally, it corresponds to the &lt;html&gt; element
@@ -110,16 +244,77 @@ public class BrowserCanvas extends JPanel
     BoxFactory factory;
     public void createLayout(Dimension dim)
     {
-        img = new BufferedImage(dim.width, dim.height, BufferedImage.TYPE_INT_RGB);
-        System.gc();
-        Graphics2D ig = img.createGraphics();
+        viewport = buildLayout(dim);
+        factory = viewport.getFactory();
+        layoutSize = new Dimension(dim);
+        createTiles(dim);
+        reflows.release(viewport); //the images loaded during the layout
+    }
+    
+    /**
+     * Computes the layout of the current document again for a new viewport size, e.g. when
+     * the window has been resized. The existing box tree is laid out again without creating
+     * the boxes and computing the styles. The displayed tree is modified in place, so this method
+     * must be called from the event dispatch thread that paints it.
+     * @param dim the new viewport size
+     */
+    public void relayout(Dimension dim)
+    {
+        if (viewport == null)
+        {
+            createLayout(dim);
+            return;
+        }
+        Dimension size = new Dimension(dim);
+        if (size.equals(layoutSize))
+            return;
+        resetLayout(size);
+        layoutSize = size;
+    }
+    
+    /**
+     * Lays out the current box tree again for a new viewport size. The boxes are reused, only
+     * their sizes are computed again. This method must be called from the event dispatch thread.
+     * @param dim the new viewport size
+     */
+    public void updateLayout(Dimension dim)
+    {
+        resetLayout(dim);
+        layoutSize = new Dimension(dim);
+    }
+    
+    /**
+     * Computes the layout of the current box tree for the given viewport size.
+     */
+    private void resetLayout(Dimension dim)
+    {
+        viewport.setSize(dim.width, dim.height);
+        viewport.setContentHeight(dim.height);
+        viewport.resetSubtree();
+        viewport.doLayout(dim.width, true, true);
+        viewport.updateBounds();
+        viewport.absolutePositions();
+        createTiles(dim);
+    }
+    
+    /**
+     * Creates a new box tree for the current document and computes its layout.
+     * @param dim the viewport size
+     * @return the resulting viewport
+     */
+    private Viewport buildLayout(Dimension dim)
+    {
+        Graphics2D ig = createMeasureGraphics();
         
         VisualContext ctx = new VisualContext(null);
         
         System.err.println("Creating boxes");
-        factory = new BoxFactory(decoder, baseurl);
+        BoxFactory factory = new BoxFactory(decoder, baseurl);
         factory.reset();
-        viewport = factory.createViewportTree(root, ig, ctx, dim.width, dim.height);
+        Viewport viewport = factory.createViewportTree(root, ig, ctx, dim.width, dim.height);
+        reflows.hold(viewport); //not displayed until the layout is finished
+        viewport.setCanvas(this);
+        viewport.setParallelLayout(parallelLayout);
         System.err.println("We have " + factory.next_order + " boxes");
         viewport.initSubtree();
         
@@ -131,75 +326,90 @@ public class BrowserCanvas extends JPanel
         viewport.updateBounds();
         System.err.println("Resulting size: " + viewport.getWidth() + "x" + viewport.getHeight() + " (" + viewport + ")");
         
-        if (viewport.getWidth() > dim.width || viewport.getHeight() > dim.height)
-        {
-            img = new BufferedImage(Math.max(viewport.getWidth(), dim.width),
-                                    Math.max(viewport.getHeight(), dim.height),
-                                    BufferedImage.TYPE_INT_RGB);
-            ig = img.createGraphics();
-        }
-        
-        System.err.println("Positioning for "+img.getWidth()+"x"+img.getHeight()+"px");
+        System.err.println("Positioning for "+Math.max(viewport.getWidth(), dim.width)+"x"+Math.max(viewport.getHeight(), dim.height)+"px");
         viewport.absolutePositions();
-        
-        clearCanvas();
-        viewport.draw(ig);
-        setPreferredSize(new Dimension(img.getWidth(), img.getHeight()));
+        return viewport;
+    }
+    
+    /**
+     * Creates an empty set of tiles for the current viewport. Nothing is drawn until the tiles
+     * are displayed.
+     * @param dim the viewport size used for the layout
+     */
+    protected void createTiles(Dimension dim)
+    {
+        int w = Math.max(viewport.getWidth(), dim.width);
+        int h = Math.max(viewport.getHeight(), dim.height);
+        tiles = new TileCache(viewport, w, h, MAX_TILES);
+        setPreferredSize(new Dimension(w, h));
         revalidate();
     }
     
-    public void updateLayout(Dimension dim)
+    /**
+     * Creates a graphics context used by the boxes for measuring the text during the layout.
+     */
+    private Graphics2D createMeasureGraphics()
     {
-    	
-    	 img = new BufferedImage(dim.width, dim.height, BufferedImage.TYPE_INT_RGB);
-         System.gc();
-         Graphics2D ig = img.createGraphics();
-
-         System.err.println("Layout for "+dim.width+"px");
-         viewport.setSize(dim.width, dim.height);
-         viewport.setContentHeight(dim.height);
-         viewport.initSubtree();
-         viewport.doLayout(dim.width, true, true);
-         System.err.println("Resulting size: " + viewport.getWidth() + "x" + viewport.getHeight() + " (" + viewport + ")");
-
-         System.err.println("Updating viewport size");
-         viewport.updateBounds();
-         System.err.println("Resulting size: " + viewport.getWidth() + "x" + viewport.getHeight() + " (" + viewport + ")");
-         
-         if (viewport.getWidth() > dim.width || viewport.getHeight() > dim.height)
-         {
-             img = new BufferedImage(Math.max(viewport.getWidth(), dim.width),
-                                     Math.max(viewport.getHeight(), dim.height),
-                                     BufferedImage.TYPE_INT_RGB);
-             ig = img.createGraphics();
-         }
-         
-         System.err.println("Positioning for "+img.getWidth()+"x"+img.getHeight()+"px");
-         viewport.absolutePositions();
-         
-         clearCanvas();
-         viewport.draw(ig);
-         setPreferredSize(new Dimension(img.getWidth(), img.getHeight()));
-         revalidate();
+        return new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
     }
     
     public void paintComponent(Graphics g) 
     {
         super.paintComponent(g);
-        g.drawImage(img, 0, 0, null);
-    }    
+        TileCache t = tiles;
+        if (t != null)
+        {
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) clip = getVisibleRect();
+            t.ensureCapacity(countTiles(getVisibleRect(), PREFETCH_MARGIN + 1));
+            t.paint(g, clip);
+            schedulePrefetch();
+        }
+    }
+    
+    /**
+     * Draws the tiles around the visible area after the visible ones have been displayed,
+     * so that they are ready when the page is scrolled.
+     */
+    private void schedulePrefetch()
+    {
+        if (!prefetchPending)
+        {
+            prefetchPending = true;
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run()
+                {
+                    prefetchPending = false;
+                    TileCache t = tiles;
+                    if (t != null)
+                    {
+                        Rectangle r = getVisibleRect();
+                        int m = PREFETCH_MARGIN * TileCache.TILE_SIZE;
+                        r.grow(m, m);
+                        t.prefetch(r);
+                    }
+                }
+            });
+        }
+    }
+    
+    /**
+     * Counts the tiles covering the given area enlarged by the given number of tiles on each side.
+     */
+    private int countTiles(Rectangle r, int margin)
+    {
+        int cols = r.width / TileCache.TILE_SIZE + 2 + 2 * margin;
+        int rows = r.height / TileCache.TILE_SIZE + 2 + 2 * margin;
+        return cols * rows;
+    }
 
     /**
-     * Fills the whole canvas with the white background.
+     * Discards all the drawn tiles, the page will be drawn again.
      */
     public void clearCanvas()
     {
-        Graphics2D ig = img.createGraphics();
-        Color bg = viewport.getBgcolor();
-        if (bg == null) bg = Color.white;
-        ig.setColor(bg);
-        ig.fillRect(0, 0, img.getWidth(), img.getHeight());
-        ig.setColor(Color.black);
+        if (tiles != null)
+            tiles.clear();
     }
     
     /**
@@ -207,26 +417,29 @@ public class BrowserCanvas extends JPanel
      */
     public void redrawBoxes()
     {
-        Graphics2D ig = img.createGraphics();
         clearCanvas();
-        viewport.draw(ig);
-        revalidate();
+        repaint();
     }
     
     /**
-     * @return the graphics context for drawing in the page image
+     * Redraws the boxes in the given area of the page only, e.g. when the content of a box has changed.
+     * @param area the changed area in the page coordinates
      */
-    public Graphics2D getImageGraphics()
+    public void redrawArea(Rectangle area)
     {
-        return img.createGraphics();
+        if (tiles != null)
+            tiles.invalidate(area);
+        repaint(area);
     }
     
     /**
+     * Draws the whole page to a new image. The page is normally drawn in tiles, this is only
+     * useful when the complete page image is required.
      * @return image containing the rendered page
      */
     public BufferedImage getImage()
     {
-        return img;
+        return (tiles == null) ? null : tiles.render();
     }
     
 }
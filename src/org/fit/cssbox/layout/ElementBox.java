@@ -143,6 +143,12 @@ abstract public class ElementBox extends Box
     
     /** Last valid child (excl) */
     protected int endChild;
+    
+    /** The cached minimal width of the contents or -1 when it must be computed again */
+    private int minContentWidth = -1;
+    
+    /** The cached maximal width of the contents or -1 when it must be computed again */
+    private int maxContentWidth = -1;
 
     //=======================================================================
     
@@ -223,6 +229,30 @@ abstract public class ElementBox extends Box
         computeEfficientMargins();
     }
     
+    @Override
+    public void resetSubtree()
+    {
+        resetBox();
+        loadSizes();
+        
+        for (int i = 0; i < getSubBoxNumber(); i++)
+            getSubBox(i).resetSubtree();
+        
+        computeEfficientMargins();
+    }
+    
+    @Override
+    protected void resetBox()
+    {
+        //the box could have been shortened by splitting during the previous layout
+        startChild = 0;
+        endChild = nested.size();
+        //the children could have been adopted by the split copies of this box
+        adoptChildren();
+        //the widths may depend on the containing block size (percentages)
+        discardIntrinsicWidths();
+    }
+    
     //=======================================================================
     
     /**
@@ -241,6 +271,7 @@ abstract public class ElementBox extends Box
     {
     	style = s;
     	loadBasicStyle();
+    	invalidateIntrinsicWidths();
     }
     
     /**
@@ -401,6 +432,7 @@ abstract public class ElementBox extends Box
             isempty = false;
         if (!(box instanceof TextBox))
             textonly = false;
+        invalidateIntrinsicWidths();
     }
     
     /**
@@ -411,6 +443,7 @@ abstract public class ElementBox extends Box
     {
         if (nested.remove(box))
             endChild--;
+        invalidateIntrinsicWidths();
     }
     
     /**
@@ -420,6 +453,7 @@ abstract public class ElementBox extends Box
     {
         nested.removeAllElements();
         endChild = 0;
+        invalidateIntrinsicWidths();
     }
     
     /**
@@ -432,6 +466,7 @@ abstract public class ElementBox extends Box
         int pos = nested.indexOf(where);
         nested.insertElementAt(what, pos);
         endChild++;
+        invalidateIntrinsicWidths();
     }
 
     /**
@@ -444,6 +479,7 @@ abstract public class ElementBox extends Box
         int pos = nested.indexOf(where);
         nested.insertElementAt(what, pos+1);
         endChild++;
+        invalidateIntrinsicWidths();
     }
 
     /**
@@ -455,6 +491,20 @@ abstract public class ElementBox extends Box
     {
         nested.insertElementAt(what, index);
         endChild++;
+        invalidateIntrinsicWidths();
+    }
+    
+    /**
+     * Inserts the rest of a sub box that has been split during the layout at a specified index.
+     * Unlike {@link #insertSubBox(int, Box)}, the cached intrinsic widths are preserved because
+     * the split boxes are removed again before the next layout.
+     * @param index the index where the new box will be placed
+     * @param rest the rest of the split box
+     */
+    protected void insertSplitRest(int index, Box rest)
+    {
+        nested.insertElementAt(rest, index);
+        endChild++;
     }
     
     /**
@@ -649,6 +699,80 @@ abstract public class ElementBox extends Box
                   - padding.right - border.right - margin.right;
     }
     
+    /**
+     * Obtains the minimal width of the box contents. The value is computed by
+     * {@link #computeMinimalContentWidth()} on the first use and cached until the contents
+     * or the style of the box change.
+     * @return the minimal content width
+     */
+    protected int getMinimalContentWidth()
+    {
+        if (minContentWidth == -1)
+            minContentWidth = computeMinimalContentWidth();
+        return minContentWidth;
+    }
+    
+    /**
+     * Obtains the maximal width of the box contents. The value is computed by
+     * {@link #computeMaximalContentWidth()} on the first use and cached until the contents
+     * or the style of the box change.
+     * @return the maximal content width
+     */
+    protected int getMaximalContentWidth()
+    {
+        if (maxContentWidth == -1)
+            maxContentWidth = computeMaximalContentWidth();
+        return maxContentWidth;
+    }
+    
+    /**
+     * Computes the minimal width of the box content from the contained sub-boxes.
+     * By default, this is the maximum of the sub-box minimal widths.
+     * @return the minimal content width
+     */
+    protected int computeMinimalContentWidth()
+    {
+        int ret = 0;
+        for (int i = startChild; i < endChild; i++)
+        {
+            int w = getSubBox(i).getMinimalWidth();
+            if (w > ret) ret = w;
+        }
+        return ret;
+    }
+    
+    /**
+     * Computes the maximal width of the box content from the contained sub-boxes.
+     * By default, this is the sum of the sub-box maximal widths.
+     * @return the maximal content width
+     */
+    protected int computeMaximalContentWidth()
+    {
+        int ret = 0;
+        for (int i = startChild; i < endChild; i++)
+            ret += getSubBox(i).getMaximalWidth();
+        return ret;
+    }
+    
+    /**
+     * Discards the cached minimal and maximal content widths of this box and all its ancestors.
+     * This must be called whenever the contents or the style of the box change.
+     */
+    public void invalidateIntrinsicWidths()
+    {
+        for (ElementBox box = this; box != null; box = box.getParent())
+            box.discardIntrinsicWidths();
+    }
+    
+    /**
+     * Discards the cached minimal and maximal content widths of this box only.
+     */
+    protected void discardIntrinsicWidths()
+    {
+        minContentWidth = -1;
+        maxContentWidth = -1;
+    }
+    
     @Override
     public Rectangle getMinimalAbsoluteBounds()
     {
@@ -773,6 +897,7 @@ abstract public class ElementBox extends Box
      */
     public void drawBackground(Graphics2D g)
     {
+        if (!isInDrawArea()) return;
         Color color = g.getColor(); //original color
 
         //top left corner
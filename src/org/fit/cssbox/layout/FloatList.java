@@ -23,7 +23,11 @@ package org.fit.cssbox.layout;
 import java.util.*;
 
 /**
- * A list of floating boxes
+ * A list of floating boxes. The widths of the floats at the individual Y coordinates are kept in
+ * an interval map: the Y axis is split to the intervals where the same floats are present and
+ * each interval keeps the total float width and the Y coordinate where it becomes narrower.
+ * When a float that is already in the list is moved or resized, {@link #update(BlockBox)} must be
+ * called so that the map is created again.
  *
  * @author  radek
  */
@@ -35,6 +39,12 @@ public class FloatList
     //private int lastY; //Y coordinate of the last box. New boxes shouldn't be placed above this limit
     private BlockBox bottomBox = null; //Bottom-most box.
     private BlockBox lastBox = null; //last box inserted. New boxes shouldn't be placed above this box.
+    /** The intervals of the Y axis by their starting Y coordinate. Each interval ends where the next one starts. */
+    private TreeMap<Integer, Interval> intervals;
+    /** The maximal bottom Y coordinate of the boxes for their containing blocks */
+    private HashMap<BlockBox, Integer> ownerMaxY;
+    /** Some box has been changed and the interval map must be created again */
+    private boolean changed;
     
     /**
      * Creates a list of floating boxes for some owner block.
@@ -44,6 +54,9 @@ public class FloatList
     {
     	owner = ownerBox;
         floats = new Vector<BlockBox>();
+        intervals = new TreeMap<Integer, Interval>();
+        ownerMaxY = new HashMap<BlockBox, Integer>();
+        changed = false;
     }
     
     /**
@@ -66,6 +79,17 @@ public class FloatList
             bottomBox = box;
         if (box.getBounds().y > getLastY())
             lastBox = box;
+        if (!changed)
+            insert(box);
+    }
+    
+    /**
+     * Notifies the list that the position or size of a box in the list has changed.
+     * @param box the changed box
+     */
+    public void update(BlockBox box)
+    {
+        changed = true;
     }
     
     /**
@@ -118,18 +142,8 @@ public class FloatList
      */
     public int getWidth(int y)
     {
-        int maxx = 0;
-        for (int i = 0; i < size(); i++)
-        {
-            Box box = getBox(i);
-            if (box.getBounds().y <= y &&
-                box.getBounds().y + box.getBounds().height > y)
-            {
-                int wx = box.getBounds().x + box.getBounds().width;
-                if (wx > maxx) maxx = wx;
-            }
-        }
-        return maxx;
+        Interval iv = getInterval(y);
+        return (iv == null) ? 0 : iv.width;
     }
     
     /** 
@@ -140,23 +154,8 @@ public class FloatList
      */
     public int getNextY(int y)
     {
-        int maxx = 0;
-        int nexty = -1;
-        for (int i = 0; i < size(); i++) //find the bottom of the rightmost box at this Y coordinate
-        {
-            Box box = getBox(i);
-            if (box.getBounds().y <= y &&
-                box.getBounds().y + box.getBounds().height > y)
-            {
-                int wx = box.getBounds().x + box.getBounds().width;
-                if (wx > maxx) 
-                {
-                    maxx = wx;
-                    nexty = box.getBounds().y + box.getBounds().height;
-                }
-            }
-        }
-        return nexty;
+        Interval iv = getInterval(y);
+        return (iv == null) ? -1 : iv.nexty;
     }
 
     /**
@@ -168,17 +167,97 @@ public class FloatList
      */
     public int getMaxYForOwner(BlockBox owner)
     {
-        int maxy = 0;
-        for (int i = 0; i < size(); i++)
+        if (changed)
+            rebuild();
+        Integer ret = ownerMaxY.get(owner);
+        return (ret == null) ? 0 : ret;
+    }
+    
+    //=======================================================================
+    
+    /**
+     * Finds the interval containing the given Y coordinate.
+     * @return the interval or <code>null</code> when there is no float at this coordinate or above
+     */
+    private Interval getInterval(int y)
+    {
+        if (changed)
+            rebuild();
+        Map.Entry<Integer, Interval> entry = intervals.floorEntry(y);
+        return (entry == null) ? null : entry.getValue();
+    }
+    
+    /**
+     * Creates the interval map again from the current box positions.
+     */
+    private void rebuild()
+    {
+        intervals.clear();
+        ownerMaxY.clear();
+        for (BlockBox box : floats)
+            insert(box);
+        changed = false;
+    }
+    
+    /**
+     * Adds a box to the interval map. The rightmost box at each Y coordinate is used for
+     * the interval; from the boxes with the same right edge, the first inserted one is used.
+     */
+    private void insert(BlockBox box)
+    {
+        int y1 = box.getBounds().y;
+        int y2 = box.getBounds().y + box.getBounds().height;
+        int wx = box.getBounds().x + box.getBounds().width;
+        
+        Integer omax = ownerMaxY.get(box.getContainingBlock());
+        if (y2 > ((omax == null) ? 0 : omax)) //TODO: -1 here?
+            ownerMaxY.put(box.getContainingBlock(), y2);
+        
+        if (y2 > y1 && wx > 0)
         {
-            Box box = getBox(i);
-            if (box.getContainingBlock() == owner)
+            split(y1);
+            split(y2);
+            for (Interval iv : intervals.subMap(y1, true, y2, false).values())
             {
-                int ny = box.bounds.y + box.bounds.height; //TODO: -1 here?
-                if (ny > maxy) maxy = ny;
+                if (wx > iv.width)
+                {
+                    iv.width = wx;
+                    iv.nexty = y2;
+                }
             }
         }
-        return maxy;
+    }
+    
+    /**
+     * Makes sure that an interval starts at the given Y coordinate.
+     */
+    private void split(int y)
+    {
+        if (!intervals.containsKey(y))
+        {
+            Map.Entry<Integer, Interval> prev = intervals.floorEntry(y);
+            if (prev == null)
+                intervals.put(y, new Interval(0, -1));
+            else
+                intervals.put(y, new Interval(prev.getValue().width, prev.getValue().nexty));
+        }
+    }
+    
+    /**
+     * An interval of the Y axis with the same floats.
+     */
+    private static class Interval
+    {
+        /** The total width of the floats */
+        public int width;
+        /** The bottom of the rightmost float, where the floats may get narrower, or -1 when there are no floats */
+        public int nexty;
+        
+        public Interval(int width, int nexty)
+        {
+            this.width = width;
+            this.nexty = nexty;
+        }
     }
     
 }
@@ -0,0 +1,184 @@
+/*
+ * FontCache.java
+ * Copyright (c) 2026 Internet Adventure contributors
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fit.cssbox.layout;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.font.FontRenderContext;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A shared cache of the fonts used by the visual contexts. A page usually uses just a few
+ * different fonts, so the font instances, their metrics and the values derived from the metrics
+ * are created once and shared by all the boxes. The cache may be used from multiple threads.
+ */
+public class FontCache
+{
+    private static final Map<FontKey, Font> fonts = new HashMap<FontKey, Font>();
+    private static final Map<MetricsKey, Metrics> metrics = new HashMap<MetricsKey, Metrics>();
+    private static Map<String, String> families; //available font families by lower case name
+
+    /**
+     * Obtains a font instance. The same instance is returned for the same parameters.
+     * @param family the font family name
+     * @param style the font style (see {@link Font#getStyle()})
+     * @param size the font size
+     * @return the font
+     */
+    public static Font getFont(String family, int style, int size)
+    {
+        FontKey key = new FontKey(family, style, size);
+        synchronized (fonts)
+        {
+            Font ret = fonts.get(key);
+            if (ret == null)
+            {
+                ret = new Font(family, style, size);
+                fonts.put(key, ret);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Obtains the metrics of a font for the given graphics context.
+     * @param font the font
+     * @param g the graphics context used for rendering
+     * @return the font metrics and the derived values
+     */
+    public static Metrics getMetrics(Font font, Graphics2D g)
+    {
+        MetricsKey key = new MetricsKey(font, g.getFontRenderContext());
+        synchronized (metrics)
+        {
+            Metrics ret = metrics.get(key);
+            if (ret == null)
+            {
+                ret = new Metrics(g.getFontMetrics(font));
+                metrics.put(key, ret);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Finds an available font family.
+     * @param family the family name (case insensitive)
+     * @return the exact name of the font family or <code>null</code> if it's not available
+     */
+    public static String getAvailableFamily(String family)
+    {
+        synchronized (fonts)
+        {
+            if (families == null)
+            {
+                families = new HashMap<String, String>();
+                String avail[] = GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
+                for (int i = avail.length - 1; i >= 0; i--) //the first one wins
+                    families.put(avail[i].toLowerCase(), avail[i]);
+            }
+            return families.get(family.toLowerCase());
+        }
+    }
+
+    //===================================================================================
+
+    /**
+     * The font metrics together with the values computed from them.
+     */
+    public static class Metrics
+    {
+        /** The font metrics */
+        public final FontMetrics fm;
+        /** The height of a text line */
+        public final int height;
+        /** The maximal ascent of the font */
+        public final int maxAscent;
+        /** The ex value derived from the font height */
+        public final double ex;
+
+        public Metrics(FontMetrics fm)
+        {
+            this.fm = fm;
+            height = fm.getHeight();
+            maxAscent = fm.getMaxAscent();
+            ex = (int) (height * 0.6);
+        }
+    }
+
+    private static class FontKey
+    {
+        private String family;
+        private int style;
+        private int size;
+
+        public FontKey(String family, int style, int size)
+        {
+            this.family = family;
+            this.style = style;
+            this.size = size;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (family.hashCode() * 31 + style) * 31 + size;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof FontKey))
+                return false;
+            FontKey other = (FontKey) obj;
+            return family.equals(other.family) && style == other.style && size == other.size;
+        }
+    }
+
+    private static class MetricsKey
+    {
+        private Font font;
+        private FontRenderContext frc;
+
+        public MetricsKey(Font font, FontRenderContext frc)
+        {
+            this.font = font;
+            this.frc = frc;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return font.hashCode() * 31 + frc.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof MetricsKey))
+                return false;
+            MetricsKey other = (MetricsKey) obj;
+            return font.equals(other.font) && frc.equals(other.frc);
+        }
+    }
+
+}
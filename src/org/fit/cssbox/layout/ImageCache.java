@@ -0,0 +1,493 @@
+/*
+ * ImageCache.java
+ * Copyright (c) 2026 Internet Adventure contributors
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fit.cssbox.layout;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A process-wide cache of the decoded images shared by all the documents. The images are identified
+ * by their URL and the size they have been decoded to, so that an image used many times is decoded
+ * only once. The total size of the cached images is limited by a byte budget, the least recently used
+ * images are discarded first. The images larger than the whole budget are not cached at all.
+ * The images are only softly referenced so that they may be discarded sooner when the memory is low,
+ * the users of an image should keep their own reference to it. The cache may be used from multiple threads.
+ * <p>
+ * The images may be decoded directly to the size they are displayed in. The source pixels are
+ * subsampled during the decoding and the result is scaled to the exact size, so that the memory
+ * used corresponds to the displayed size and the image may be drawn without scaling.
+ */
+public class ImageCache
+{
+    /** The default memory budget in bytes */
+    public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    /** The maximal number of remembered source image sizes */
+    private static final int MAX_SIZES = 4096;
+
+    private static ImageCache instance = null;
+
+    private long budget;
+    private long size = 0;
+    private LinkedHashMap<Key, Entry> entries;
+    private ReferenceQueue<BufferedImage> cleared;
+
+    /** The images being decoded just now */
+    private Set<Key> decoding;
+
+    /** The original sizes of the recently decoded images */
+    private LinkedHashMap<String, Dimension> sizes;
+
+    /**
+     * Creates a new cache.
+     * @param budget the maximal total size of the cached images in bytes
+     */
+    public ImageCache(long budget)
+    {
+        this.budget = budget;
+        entries = new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+        cleared = new ReferenceQueue<BufferedImage>();
+        decoding = new HashSet<Key>();
+        sizes = new LinkedHashMap<String, Dimension>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Dimension> eldest)
+            {
+                return size() > MAX_SIZES;
+            }
+        };
+    }
+
+    /**
+     * Obtains the shared cache.
+     * @return the cache instance
+     */
+    public static synchronized ImageCache getInstance()
+    {
+        if (instance == null)
+            instance = new ImageCache(DEFAULT_BUDGET);
+        return instance;
+    }
+
+    /**
+     * @return the maximal total size of the cached images in bytes
+     */
+    public synchronized long getBudget()
+    {
+        return budget;
+    }
+
+    /**
+     * Changes the maximal total size of the cached images. The images over the budget are discarded.
+     * @param budget the new budget in bytes
+     */
+    public synchronized void setBudget(long budget)
+    {
+        this.budget = budget;
+        shrink();
+    }
+
+    /**
+     * @return the current total size of the cached images in bytes
+     */
+    public synchronized long getSize()
+    {
+        purge();
+        return size;
+    }
+
+    /**
+     * Obtains a cached image decoded in the original size.
+     * @param url the image URL
+     * @return the image or <code>null</code> when the image is not cached
+     */
+    public BufferedImage get(URL url)
+    {
+        return get(url, 0, 0);
+    }
+
+    /**
+     * Obtains a cached image decoded to the given size.
+     * @param url the image URL
+     * @param width the width the image has been decoded to, 0 for the original size
+     * @param height the height the image has been decoded to, 0 for the original size
+     * @return the image or <code>null</code> when the image is not cached
+     */
+    public synchronized BufferedImage get(URL url, int width, int height)
+    {
+        purge();
+        return lookup(new Key(url, width, height));
+    }
+
+    /**
+     * Obtains a cached image decoded to the given size. When only the original image is cached,
+     * the scaled copy is created and cached. The image data is never read by this method.
+     * @param url the image URL
+     * @param width the requested width
+     * @param height the requested height
+     * @return the image or <code>null</code> when neither the scaled image nor the original is cached
+     */
+    public BufferedImage getScaled(URL url, int width, int height)
+    {
+        Key key = new Key(url, width, height);
+        BufferedImage orig;
+        synchronized (this)
+        {
+            purge();
+            BufferedImage ret = lookup(key);
+            if (ret != null)
+                return ret;
+            orig = lookup(new Key(url, 0, 0));
+        }
+        if (orig == null)
+            return null;
+        BufferedImage ret = scale(orig, width, height);
+        synchronized (this)
+        {
+            store(key, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Stores a decoded image in the cache.
+     * @param url the image URL
+     * @param width the width the image has been decoded to, 0 for the original size
+     * @param height the height the image has been decoded to, 0 for the original size
+     * @param image the decoded image
+     */
+    public synchronized void put(URL url, int width, int height, BufferedImage image)
+    {
+        purge();
+        store(new Key(url, width, height), image);
+    }
+
+    /**
+     * Obtains an image in the original size. When the image is not cached, it is read from the
+     * given source and stored in the cache. When the same image is being decoded by another
+     * thread, the result of the other thread is used.
+     * @param url the image URL
+     * @param source the source of the image data or <code>null</code> for reading the URL directly
+     * @return the image
+     * @throws IOException when the image cannot be read or decoded
+     */
+    public BufferedImage load(URL url, Source source) throws IOException
+    {
+        return load(url, 0, 0, source);
+    }
+
+    /**
+     * Obtains an image decoded to the given size. When the image is not cached, it is scaled from
+     * the cached original or read from the given source and stored in the cache. When the same image
+     * is being decoded by another thread, the result of the other thread is used.
+     * @param url the image URL
+     * @param width the requested width, 0 for the original size
+     * @param height the requested height, 0 for the original size
+     * @param source the source of the image data or <code>null</code> for reading the URL directly
+     * @return the image
+     * @throws IOException when the image cannot be read or decoded
+     */
+    public BufferedImage load(URL url, int width, int height, Source source) throws IOException
+    {
+        Key key = new Key(url, width, height);
+        BufferedImage orig = null;
+        synchronized (this)
+        {
+            while (true)
+            {
+                purge();
+                BufferedImage ret = lookup(key);
+                if (ret != null)
+                    return ret;
+                if (decoding.add(key))
+                    break;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while waiting for " + url);
+                }
+            }
+            if (width > 0 && height > 0)
+                orig = lookup(new Key(url, 0, 0));
+        }
+
+        BufferedImage img = null;
+        try {
+            if (orig != null)
+                img = scale(orig, width, height);
+            else
+            {
+                InputStream in = (source == null) ? url.openStream() : source.openStream(url);
+                try {
+                    img = decode(in, url, width, height);
+                } finally {
+                    in.close();
+                }
+            }
+            return img;
+        } finally {
+            synchronized (this)
+            {
+                decoding.remove(key);
+                if (img != null)
+                    store(key, img);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Obtains the original size of an image that has been decoded recently.
+     * @param url the image URL
+     * @return the image size or <code>null</code> when not known
+     */
+    public synchronized Dimension getSourceSize(URL url)
+    {
+        Dimension ret = sizes.get(url.toExternalForm());
+        return (ret == null) ? null : new Dimension(ret);
+    }
+
+    /**
+     * Discards all the cached images.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        size = 0;
+    }
+
+    //===================================================================================
+
+    private BufferedImage lookup(Key key)
+    {
+        Entry entry = entries.get(key);
+        if (entry != null)
+        {
+            BufferedImage ret = entry.get();
+            if (ret == null)
+                remove(entry);
+            return ret;
+        }
+        else
+            return null;
+    }
+
+    private void store(Key key, BufferedImage image)
+    {
+        Entry old = entries.get(key);
+        if (old != null)
+            remove(old);
+        Entry entry = new Entry(key, image, cleared);
+        if (entry.bytes > budget)
+            return; //it would be discarded immediately
+        entries.put(key, entry);
+        size += entry.bytes;
+        shrink();
+    }
+
+    private void remove(Entry entry)
+    {
+        if (entries.get(entry.key) == entry)
+        {
+            entries.remove(entry.key);
+            size -= entry.bytes;
+        }
+    }
+
+    /**
+     * Discards the least recently used images until the budget is met.
+     */
+    private void shrink()
+    {
+        for (Iterator<Entry> it = entries.values().iterator(); size > budget && it.hasNext(); )
+        {
+            Entry entry = it.next();
+            it.remove();
+            size -= entry.bytes;
+        }
+    }
+
+    /**
+     * Removes the entries whose images have been collected.
+     */
+    private void purge()
+    {
+        Object ref;
+        while ((ref = cleared.poll()) != null)
+            remove((Entry) ref);
+    }
+
+    /**
+     * Decodes an image from a stream. When the size is given, only every n-th source pixel
+     * is read so that the result is not smaller than the requested size and the result is then
+     * scaled to the exact size.
+     */
+    private BufferedImage decode(InputStream in, URL url, int width, int height) throws IOException
+    {
+        ImageInputStream iis = ImageIO.createImageInputStream(in);
+        if (iis == null)
+            throw new IOException("Cannot read " + url);
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext())
+                throw new IOException("Unsupported image format: " + url);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int sw = reader.getWidth(0);
+                int sh = reader.getHeight(0);
+                synchronized (this)
+                {
+                    sizes.put(url.toExternalForm(), new Dimension(sw, sh));
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (width > 0 && height > 0)
+                {
+                    int sx = Math.max(1, sw / width);
+                    int sy = Math.max(1, sh / height);
+                    if (sx > 1 || sy > 1)
+                        param.setSourceSubsampling(sx, sy, 0, 0);
+                }
+                BufferedImage img = reader.read(0, param);
+                if (width > 0 && height > 0)
+                    img = scale(img, width, height);
+                return img;
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
+
+    /**
+     * Creates a scaled copy of an image. The image is reduced in several steps when necessary
+     * in order to keep the quality of the bilinear interpolation.
+     */
+    private static BufferedImage scale(BufferedImage img, int width, int height)
+    {
+        int type = (img.getTransparency() == Transparency.OPAQUE) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        if (img.getWidth() == width && img.getHeight() == height && img.getType() == type)
+            return img;
+        BufferedImage ret = img;
+        int w = img.getWidth();
+        int h = img.getHeight();
+        do
+        {
+            w = (w / 2 >= width) ? w / 2 : width;
+            h = (h / 2 >= height) ? h / 2 : height;
+            BufferedImage step = new BufferedImage(w, h, type);
+            Graphics2D g = step.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(ret, 0, 0, w, h, null);
+            g.dispose();
+            ret = step;
+        } while (w != width || h != height);
+        return ret;
+    }
+
+    /**
+     * Estimates the memory occupied by an image.
+     */
+    private static long getBytes(BufferedImage image)
+    {
+        DataBuffer buf = image.getRaster().getDataBuffer();
+        return (long) buf.getSize() * buf.getNumBanks() * DataBuffer.getDataTypeSize(buf.getDataType()) / 8;
+    }
+
+    //===================================================================================
+
+    /**
+     * A source of the data of the images that are not cached.
+     */
+    public interface Source
+    {
+        /**
+         * Opens the image data.
+         * @param url the image URL
+         * @return the stream of the encoded image data
+         * @throws IOException when the data cannot be read
+         */
+        public InputStream openStream(URL url) throws IOException;
+    }
+
+    private static class Key
+    {
+        private String url;
+        private int width;
+        private int height;
+
+        public Key(URL url, int width, int height)
+        {
+            this.url = url.toExternalForm(); //URL.equals() may resolve the host names
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (url.hashCode() * 31 + width) * 31 + height;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return url.equals(other.url) && width == other.width && height == other.height;
+        }
+    }
+
+    private static class Entry extends SoftReference<BufferedImage>
+    {
+        private Key key;
+        private long bytes;
+
+        public Entry(Key key, BufferedImage image, ReferenceQueue<BufferedImage> queue)
+        {
+            super(image, queue);
+            this.key = key;
+            bytes = getBytes(image);
+        }
+    }
+
+}
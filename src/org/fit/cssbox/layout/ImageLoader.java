@@ -0,0 +1,417 @@
+/*
+ * ImageLoader.java
+ * Copyright (c) 2026 Internet Adventure contributors
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fit.cssbox.layout;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A shared service that loads the images in the background. A fixed number of loader threads
+ * is used and the number of simultaneous connections to a single host is limited. The waiting
+ * requests are served in the order of their priority, the images that are currently displayed
+ * go first. All the requests of a document may be cancelled when the document is left.
+ * The decoded images are shared through the {@link ImageCache}.
+ */
+public class ImageLoader
+{
+    /** The default number of loader threads */
+    public static final int DEFAULT_THREADS = 6;
+
+    /** The default maximal number of images loaded from a single host at the same time */
+    public static final int DEFAULT_HOST_LIMIT = 2;
+
+    /** Request priority: the image is not displayed yet */
+    public static final int PRIORITY_NORMAL = 0;
+
+    /** Request priority: the image is displayed */
+    public static final int PRIORITY_VISIBLE = 1;
+
+    private static ImageLoader instance = null;
+
+    private int maxThreads;
+    private int hostLimit;
+    private int threads = 0;
+    private int idle = 0;
+    private long nextSeq = 0;
+
+    /** The waiting requests, the one to be served first goes first */
+    private TreeSet<Request> waiting;
+
+    /** The running requests */
+    private HashSet<Request> active;
+
+    /** The number of running requests for each host */
+    private Map<String, Integer> running;
+
+    /**
+     * Creates a new loader.
+     * @param maxThreads the number of loader threads
+     * @param hostLimit the maximal number of images loaded from a single host at the same time
+     */
+    public ImageLoader(int maxThreads, int hostLimit)
+    {
+        this.maxThreads = maxThreads;
+        this.hostLimit = hostLimit;
+        waiting = new TreeSet<Request>(new RequestComparator());
+        active = new HashSet<Request>();
+        running = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Obtains the shared loader used by the image boxes.
+     * @return the loader instance
+     */
+    public static synchronized ImageLoader getInstance()
+    {
+        if (instance == null)
+            instance = new ImageLoader(DEFAULT_THREADS, DEFAULT_HOST_LIMIT);
+        return instance;
+    }
+
+    /**
+     * Requests loading an image in the original size. When the image is already available
+     * in the {@link ImageCache}, the callback is invoked immediately by the calling thread.
+     * @param url the image URL
+     * @param group the object the request belongs to (usually the document), used for cancelling
+     * @param callback the object notified when the image is loaded
+     * @return the new request
+     */
+    public Request load(URL url, Object group, Callback callback)
+    {
+        return load(url, 0, 0, group, callback);
+    }
+
+    /**
+     * Requests loading an image decoded to the given size. When the image is already available
+     * in the {@link ImageCache}, the callback is invoked immediately by the calling thread.
+     * @param url the image URL
+     * @param width the requested width, 0 for the original size
+     * @param height the requested height, 0 for the original size
+     * @param group the object the request belongs to (usually the document), used for cancelling
+     * @param callback the object notified when the image is loaded
+     * @return the new request
+     */
+    public Request load(URL url, int width, int height, Object group, Callback callback)
+    {
+        Request req;
+        synchronized (this)
+        {
+            req = new Request(url, width, height, group, callback, nextSeq++);
+        }
+        BufferedImage cached = ImageCache.getInstance().get(url, width, height);
+        if (cached != null)
+        {
+            req.started = true;
+            callback.imageLoaded(req, cached);
+        }
+        else
+            enqueue(req);
+        return req;
+    }
+
+    private synchronized void enqueue(Request req)
+    {
+        waiting.add(req);
+        if (idle == 0 && threads < maxThreads)
+            startThread();
+        else
+            notify();
+    }
+
+    /**
+     * Changes the priority of a request that has not been started yet.
+     * @param req the request
+     * @param priority the new priority
+     */
+    public synchronized void setPriority(Request req, int priority)
+    {
+        if (req.priority != priority && waiting.remove(req))
+        {
+            req.priority = priority;
+            waiting.add(req);
+        }
+    }
+
+    /**
+     * Cancels all the waiting and running requests of the given group. The callbacks of the
+     * cancelled requests are not invoked.
+     * @param group the request group
+     */
+    public void cancel(Object group)
+    {
+        ArrayList<Request> stopped = new ArrayList<Request>();
+        synchronized (this)
+        {
+            for (Iterator<Request> it = waiting.iterator(); it.hasNext(); )
+            {
+                Request req = it.next();
+                if (req.group == group)
+                {
+                    req.cancelled = true;
+                    it.remove();
+                }
+            }
+            for (Request req : active)
+            {
+                if (req.group == group)
+                    stopped.add(req);
+            }
+        }
+        //the running requests are stopped by closing their connections
+        for (Request req : stopped)
+            req.abort();
+    }
+
+    //===================================================================================
+
+    private void startThread()
+    {
+        Thread t = new Thread("ImageLoader-" + threads) {
+            public void run()
+            {
+                serve();
+            }
+        };
+        t.setDaemon(true);
+        threads++;
+        t.start();
+    }
+
+    private void serve()
+    {
+        while (true)
+        {
+            Request req;
+            synchronized (this)
+            {
+                while ((req = next()) == null)
+                {
+                    idle++;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                    } finally {
+                        idle--;
+                    }
+                }
+            }
+            try {
+                req.run();
+            } finally {
+                finished(req);
+            }
+        }
+    }
+
+    /**
+     * Takes the first waiting request whose host is not busy.
+     */
+    private Request next()
+    {
+        for (Iterator<Request> it = waiting.iterator(); it.hasNext(); )
+        {
+            Request req = it.next();
+            Integer cnt = running.get(req.host);
+            if (cnt == null || cnt < hostLimit)
+            {
+                it.remove();
+                running.put(req.host, (cnt == null) ? 1 : cnt + 1);
+                req.started = true;
+                active.add(req);
+                return req;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void finished(Request req)
+    {
+        active.remove(req);
+        int cnt = running.get(req.host) - 1;
+        if (cnt == 0)
+            running.remove(req.host);
+        else
+            running.put(req.host, cnt);
+        notifyAll(); //some waiting request may be allowed now
+    }
+
+    //===================================================================================
+
+    /**
+     * The receiver of the loaded images. The methods are invoked from the loader threads.
+     */
+    public interface Callback
+    {
+        /**
+         * The image has been loaded.
+         * @param req the finished request
+         * @param image the decoded image
+         */
+        public void imageLoaded(Request req, BufferedImage image);
+
+        /**
+         * The image could not be loaded or decoded.
+         * @param req the finished request
+         * @param e the reason of the failure
+         */
+        public void imageFailed(Request req, Exception e);
+    }
+
+    /**
+     * A single image loading request.
+     */
+    public static class Request implements ImageCache.Source
+    {
+        private URL url;
+        private int width;
+        private int height;
+        private String host;
+        private Object group;
+        private Callback callback;
+        private long seq;
+        private volatile int priority = PRIORITY_NORMAL;
+        private volatile boolean started = false;
+        private volatile boolean cancelled = false;
+        private InputStream stream;
+
+        private Request(URL url, int width, int height, Object group, Callback callback, long seq)
+        {
+            this.url = url;
+            this.width = width;
+            this.height = height;
+            this.group = group;
+            this.callback = callback;
+            this.seq = seq;
+            host = (url.getHost() == null) ? "" : url.getHost().toLowerCase();
+        }
+
+        /**
+         * @return the image URL
+         */
+        public URL getUrl()
+        {
+            return url;
+        }
+
+        /**
+         * @return the requested image width, 0 for the original size
+         */
+        public int getWidth()
+        {
+            return width;
+        }
+
+        /**
+         * @return the requested image height, 0 for the original size
+         */
+        public int getHeight()
+        {
+            return height;
+        }
+
+        /**
+         * @return <code>true</code> when the request has been cancelled before the image was delivered
+         */
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        /**
+         * @return <code>true</code> when a loader thread has already taken the request
+         */
+        public boolean isStarted()
+        {
+            return started;
+        }
+
+        private void run()
+        {
+            BufferedImage img = null;
+            Exception err = null;
+            try {
+                img = ImageCache.getInstance().load(url, width, height, this);
+            } catch (IOException e) {
+                err = e;
+            } catch (RuntimeException e) {
+                err = e;
+            }
+            if (!cancelled)
+            {
+                if (err == null)
+                    callback.imageLoaded(this, img);
+                else
+                    callback.imageFailed(this, err);
+            }
+        }
+
+        public InputStream openStream(URL url) throws IOException
+        {
+            InputStream in = url.openStream();
+            synchronized (this)
+            {
+                if (cancelled)
+                {
+                    in.close();
+                    throw new IOException("Cancelled: " + url);
+                }
+                stream = in;
+                return in;
+            }
+        }
+
+        private synchronized void abort()
+        {
+            cancelled = true;
+            if (stream != null)
+            {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Orders the requests by their priority and the order of creation.
+     */
+    private static class RequestComparator implements Comparator<Request>
+    {
+        public int compare(Request r1, Request r2)
+        {
+            if (r1.priority != r2.priority)
+                return (r1.priority > r2.priority) ? -1 : 1;
+            else if (r1.seq != r2.seq)
+                return (r1.seq < r2.seq) ? -1 : 1;
+            else
+                return 0;
+        }
+    }
+
+}
@@ -310,12 +310,7 @@ public class InlineBox extends ElementBox implements Inline
     public int getMinimalWidth()
     {
         //return the maximum of the nested minimal widths that are separated
-        int ret = 0;
-        for (int i = startChild; i < endChild; i++)
-        {
-            int w = getSubBox(i).getMinimalWidth();
-            if (w > ret) ret = w;
-        }
+        int ret = getMinimalContentWidth();
         //increase by margin, padding, border
         ret += margin.left + padding.left + border.left +
                margin.right + padding.right + border.right;
@@ -326,9 +321,7 @@ public class InlineBox extends ElementBox implements Inline
     public int getMaximalWidth()
     {
         //return the sum of all the elements inside
-        int ret = 0;
-        for (int i = startChild; i < endChild; i++)
-            ret += getSubBox(i).getMaximalWidth();
+        int ret = getMaximalContentWidth();
         //increase by margin, padding, border
         ret += margin.left + padding.left + border.left +
                margin.right + padding.right + border.right;
@@ -400,7 +393,7 @@ public class InlineBox extends ElementBox implements Inline
     public void draw(Graphics2D g, int turn, int mode)
     {
         ctx.updateGraphics(g);
-        if (displayed)
+        if (displayed && isSubtreeInDrawArea())
         {
             Shape oldclip = g.getClip();
             g.setClip(clipblock.getAbsoluteContentBounds());
@@ -166,45 +166,61 @@ public class InlineReplacedBox extends InlineBox implements ReplacedBox
     {
         super.loadSizes();
         //TODO: Incorporate the ratio according to CSS specs. 10.3.2
+        Dimension size = computeSize();
+        boxw = size.width;
+        boxh = size.height;
+        content.width = boxw;
+        content.height = boxh;
+        bounds.setSize(totalWidth(), totalHeight());
+    }
+    
+    /**
+     * Computes the content size of the box from the element attributes, the style
+     * and the intrinsic size of the content object.
+     * @return the content size
+     */
+    protected Dimension computeSize()
+    {
+        int w = 20; //some reasonable default values
+        int h = 20;
         if (obj != null)
         {
-            boxw = obj.getIntrinsicWidth();
-            boxh = obj.getIntrinsicHeight();
-        }
-        else
-        {
-            boxw = 20; //some reasonable default values
-            boxh = 20;
+            w = obj.getIntrinsicWidth();
+            h = obj.getIntrinsicHeight();
         }
         
         TermPercent whole = CSSFactory.getTermFactory().createPercent(100.0f);
         try {
             if (!el.getAttribute("width").equals(""))
-                boxw = Integer.parseInt(el.getAttribute("width"));
+                w = Integer.parseInt(el.getAttribute("width"));
             else //try to get from style
             {
                 CSSProperty.Width width = style.getProperty("width");
                 CSSDecoder dec = new CSSDecoder(ctx);
-                boxw = dec.getLength(getLengthValue("width"), width == CSSProperty.Width.AUTO, whole, whole, boxw);
+                w = dec.getLength(getLengthValue("width"), width == CSSProperty.Width.AUTO, whole, whole, w);
             }
         } catch (NumberFormatException e) {
             System.err.println("Invalid width value: " + el.getAttribute("width"));
         }
         try {
             if (!el.getAttribute("height").equals(""))
-                boxh = Integer.parseInt(el.getAttribute("height"));
+                h = Integer.parseInt(el.getAttribute("height"));
             else //try to get from style
             {
                 CSSProperty.Height height = style.getProperty("height");
                 CSSDecoder dec = new CSSDecoder(ctx);
-                boxh = dec.getLength(getLengthValue("height"), height == CSSProperty.Height.AUTO, whole, whole, boxh);
+                h = dec.getLength(getLengthValue("height"), height == CSSProperty.Height.AUTO, whole, whole, h);
             }
         } catch (NumberFormatException e) {
             System.err.println("Invalid height value: " + el.getAttribute("height"));
         }
-        content.width = boxw;
-        content.height = boxh;
-        bounds.setSize(totalWidth(), totalHeight());
+        return new Dimension(w, h);
+    }
+    
+    public boolean isSizeChanged()
+    {
+        Dimension size = computeSize();
+        return size.width != boxw || size.height != boxh;
     }
     
     @Override
@@ -218,7 +234,7 @@ public class InlineReplacedBox extends InlineBox implements ReplacedBox
                 if (mode == DRAW_BOTH || mode == DRAW_BG) drawBackground(g);
             }
             
-            if (obj != null) obj.draw(g, boxw, boxh);
+            if (obj != null && isInDrawArea()) obj.draw(g, boxw, boxh);
         }
     }
 
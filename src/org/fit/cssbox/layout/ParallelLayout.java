@@ -0,0 +1,152 @@
+/*
+ * ParallelLayout.java
+ * Copyright (c) 2026 Internet Adventure contributors
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fit.cssbox.layout;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Lays out the independent subtrees of the box tree in parallel. A subtree is independent when
+ * its layout depends only on its available width and it does not modify anything outside of the
+ * subtree: the table cells once the column widths are known and the absolutely positioned blocks
+ * that have their own float lists. The boxes read the font metrics from their visual contexts and
+ * each box uses its own graphics context, so no mutable drawing state is shared by the threads.
+ * The results are identical to the serial layout.
+ */
+class ParallelLayout
+{
+    /** The minimal number of cells laid out in parallel, smaller tables are laid out serially */
+    public static final int MIN_CELLS = 8;
+
+    /** The number of cells that are laid out serially by a single task */
+    private static final int CELLS_PER_TASK = 4;
+
+    private static ForkJoinPool pool = null;
+
+    /**
+     * Lays out a list of table cells in parallel. The widths of the cells must be already set.
+     * The method returns when all the cells have been laid out.
+     * @param cells the cells to be laid out
+     * @param widthlimit the width available for the cells
+     */
+    public static void layoutCells(List<TableCellBox> cells, int widthlimit)
+    {
+        invoke(new CellTask(cells, 0, cells.size(), widthlimit));
+    }
+
+    /**
+     * Starts the layout of an absolutely positioned block. The block must have its own float
+     * lists and the caller must wait for the layout to finish using {@link ForkJoinTask#join()}
+     * before using the block size or position.
+     * @param box the positioned block
+     * @param widthlimit the width available for the block
+     * @return the running layout task
+     */
+    public static ForkJoinTask<?> startLayout(BlockBox box, int widthlimit)
+    {
+        ForkJoinTask<?> task = new BoxTask(box, widthlimit);
+        if (ForkJoinTask.inForkJoinPool())
+            task.fork();
+        else
+            getPool().execute(task);
+        return task;
+    }
+
+    //====================================================================================
+
+    private static void invoke(ForkJoinTask<?> task)
+    {
+        if (ForkJoinTask.inForkJoinPool())
+            task.invoke(); //nested subtree, the current pool is used
+        else
+            getPool().invoke(task);
+    }
+
+    private static synchronized ForkJoinPool getPool()
+    {
+        if (pool == null)
+            pool = new ForkJoinPool();
+        return pool;
+    }
+
+    //====================================================================================
+
+    /**
+     * Lays out a range of cells, the larger ranges are split in halves.
+     */
+    private static class CellTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private List<TableCellBox> cells;
+        private int start;
+        private int end;
+        private int widthlimit;
+
+        public CellTask(List<TableCellBox> cells, int start, int end, int widthlimit)
+        {
+            this.cells = cells;
+            this.start = start;
+            this.end = end;
+            this.widthlimit = widthlimit;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (end - start <= CELLS_PER_TASK)
+            {
+                for (int i = start; i < end; i++)
+                    cells.get(i).doLayout(widthlimit, true, true);
+            }
+            else
+            {
+                int mid = (start + end) / 2;
+                invokeAll(new CellTask(cells, start, mid, widthlimit),
+                          new CellTask(cells, mid, end, widthlimit));
+            }
+        }
+    }
+
+    /**
+     * Lays out a single block.
+     */
+    private static class BoxTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private BlockBox box;
+        private int widthlimit;
+
+        public BoxTask(BlockBox box, int widthlimit)
+        {
+            this.box = box;
+            this.widthlimit = widthlimit;
+        }
+
+        @Override
+        protected void compute()
+        {
+            box.doLayout(widthlimit, true, true);
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * ReflowScheduler.java
+ * Copyright (c) 2026 Internet Adventure contributors
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fit.cssbox.layout;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.Timer;
+
+/**
+ * Collects the replaced boxes whose intrinsic size has changed (e.g. the images that have been
+ * loaded) and updates the layout of the canvas for all of them at once. The layout is updated
+ * at most once per the given interval, the boxes changed in the meantime wait for the next update.
+ * The changes may be reported from any thread, the layout is always updated in the event
+ * dispatch thread. The changes of a viewport that is still being created are kept until
+ * the viewport is installed in the canvas.
+ */
+public class ReflowScheduler implements ActionListener
+{
+    /** The default minimal interval between the layout updates in milliseconds */
+    public static final int DEFAULT_INTERVAL = 50;
+
+    private BrowserCanvas canvas;
+    private Timer timer;
+
+    /** The changed boxes for each viewport */
+    private Map<Viewport, Set<ElementBox>> changed;
+    
+    /** The viewport being created whose changes cannot be processed yet */
+    private Viewport held;
+
+    /**
+     * Creates a new scheduler.
+     * @param canvas the canvas whose layout is updated
+     * @param interval the minimal interval between the layout updates in milliseconds
+     */
+    public ReflowScheduler(BrowserCanvas canvas, int interval)
+    {
+        this.canvas = canvas;
+        changed = new LinkedHashMap<Viewport, Set<ElementBox>>();
+        timer = new Timer(interval, this);
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Reports a changed box. The layout is updated when the current interval elapses.
+     * @param viewport the viewport the box belongs to
+     * @param box the replaced box whose intrinsic size has changed
+     */
+    public synchronized void schedule(Viewport viewport, ElementBox box)
+    {
+        Set<ElementBox> boxes = changed.get(viewport);
+        if (boxes == null)
+        {
+            boxes = new LinkedHashSet<ElementBox>();
+            changed.put(viewport, boxes);
+        }
+        boxes.add(box);
+        if (!timer.isRunning())
+            timer.start();
+    }
+
+    /**
+     * Keeps the changes of a viewport that is being created until {@link #release(Viewport)}
+     * is called, e.g. the images loaded during the initial layout.
+     * @param viewport the viewport being created
+     */
+    public synchronized void hold(Viewport viewport)
+    {
+        held = viewport;
+    }
+    
+    /**
+     * Processes the changes kept for a viewport once it has been installed in the canvas.
+     * @param viewport the installed viewport
+     */
+    public synchronized void release(Viewport viewport)
+    {
+        if (held == viewport)
+            held = null;
+        if (changed.containsKey(viewport) && !timer.isRunning())
+            timer.start();
+    }
+
+    /**
+     * Updates the layout for all the boxes changed so far. This must be called from the event
+     * dispatch thread.
+     */
+    public void flush()
+    {
+        Map<Viewport, Set<ElementBox>> batch;
+        synchronized (this)
+        {
+            timer.stop();
+            batch = changed;
+            changed = new LinkedHashMap<Viewport, Set<ElementBox>>();
+            if (held != null && batch.containsKey(held))
+                changed.put(held, batch.remove(held));
+        }
+        for (Map.Entry<Viewport, Set<ElementBox>> entry : batch.entrySet())
+            canvas.reflow(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Discards all the pending changes.
+     */
+    public synchronized void cancel()
+    {
+        timer.stop();
+        changed.clear();
+        held = null;
+    }
+
+    public void actionPerformed(ActionEvent e)
+    {
+        flush();
+    }
+
+}
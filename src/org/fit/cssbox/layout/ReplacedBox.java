@@ -37,5 +37,13 @@ public interface ReplacedBox
      */
     public void setContentObj(ReplacedContent obj);
     
+    /**
+     * Checks whether the box size changes when it is computed again, e.g. after the intrinsic
+     * size of the content object has changed. The size is not changed when it is given
+     * by the element attributes or the style.
+     * @return <code>true</code> when the box has to be laid out again
+     */
+    public boolean isSizeChanged();
+    
 
 }
@@ -70,6 +70,18 @@ public abstract class ReplacedContent
         def_height = "auto";
     }
     
+    /**
+     * Notifies the layout that the intrinsic size of the contents has changed, e.g. when the
+     * image data has been loaded. The owner box is laid out again later together with the other
+     * changed boxes. This method may be called from any thread.
+     */
+    protected void intrinsicSizeChanged()
+    {
+        Viewport viewport = owner.getViewport();
+        if (viewport != null)
+            viewport.reflowBox(owner);
+    }
+    
 	/**
 	 * Draw the contents of the element.
 	 * @param g graphics context
@@ -22,7 +22,6 @@ package org.fit.cssbox.layout;
 
 import java.awt.*;
 import java.awt.image.*;
-import java.io.*;
 import java.net.*;
 
 import com.androdome.iadventure.utils.IconManager;
@@ -32,69 +31,109 @@ import com.androdome.iadventure.utils.IconManager;
  * 
  * @author  radek
  */
-public class ReplacedImage extends ReplacedContent implements ImageObserver {
+public class ReplacedImage extends ReplacedContent implements ImageObserver, ImageLoader.Callback {
 	private static boolean LOAD_IMAGES = true;
 
 	private URL base; //document base url
 	private URL url; //image url
 	private VisualContext ctx; //visual context
-	private BufferedImage img; //the loaded image
-	Graphics2D g = null;
-	int width = 0;
-	int height = 0;
+	private volatile int imgWidth = -1; //the intrinsic size of the loaded image
+	private volatile int imgHeight = -1;
+	private volatile BufferedImage image; //the last loaded image, the ImageCache only shares it with the other boxes
+	private ImageLoader.Request request; //the last request for the image data
+	private volatile boolean pending = false; //the request has not finished yet
 
-	private boolean error = false;
+	private volatile boolean error = false;
 
 	/** 
-	 * Creates a new instance of ImgBox 
+	 * Creates a new instance of ImgBox. The image data are requested from the shared {@link ImageLoader}
+	 * and the decoded image is shared with the other boxes through the {@link ImageCache}.
 	 */
 	public ReplacedImage(final ElementBox owner, VisualContext ctx, URL baseurl) {
 		super(owner);
 		this.ctx = ctx;
 		this.base = baseurl;
-		new Thread() {
-			public void run() {
-				try
-				{
-					String src = getOwner().getElement().getAttribute("src");
-					System.out.println(base);
-					url = new URL(base, src);
-					if (LOAD_IMAGES)
-					{
-						System.err.println("Loading image: " + url);
-						img = javax.imageio.ImageIO.read(url);
-						if(g != null)
-							draw(g, width, height);
-					}
-				}
-				catch (MalformedURLException e)
-				{
-					System.err.println("ImgBox: URL: " + e.getMessage());
-					img = null;
-					url = null;
-					error = true;
-					if(g != null)
-						draw(g, width, height);
-				}
-				catch (IOException e)
-				{
-					System.err.println("ImgBox: I/O: " + e.getMessage());
-					img = null;
-					error = true;
-					if(g != null)
-						draw(g, width, height);
-				}
-				catch (IllegalArgumentException e)
-				{
-					System.err.println("ImgBox: Format error: " + e.getMessage());
-					img = null;
-					error = true;
-					if(g != null)
-						draw(g, width, height);
-				}
-				
-			}
-		}.start();
+		try
+		{
+			String src = getOwner().getElement().getAttribute("src");
+			url = new URL(base, src);
+			if (LOAD_IMAGES) //when the size is declared, the image may be decoded to the final size directly
+				requestImage(getDeclaredSize("width"), getDeclaredSize("height"));
+		}
+		catch (MalformedURLException e)
+		{
+			System.err.println("ImgBox: URL: " + e.getMessage());
+			url = null;
+			error = true;
+		}
+	}
+
+	/**
+	 * Requests the image data. The requests are grouped by the document so that they may be
+	 * cancelled when the document is left.
+	 * @param width the width to decode the image to, 0 for the original size
+	 * @param height the height to decode the image to, 0 for the original size
+	 */
+	private void requestImage(int width, int height) {
+		if (width <= 0 || height <= 0)
+			width = height = 0;
+		pending = true;
+		request = ImageLoader.getInstance().load(url, width, height, getOwner().getElement().getOwnerDocument(), this);
+	}
+
+	/**
+	 * Reads a size in pixels from an element attribute.
+	 * @return the size or 0 when not specified in pixels
+	 */
+	private int getDeclaredSize(String name) {
+		String val = getOwner().getElement().getAttribute(name).trim();
+		if (val.endsWith("px"))
+			val = val.substring(0, val.length() - 2);
+		try
+		{
+			return Integer.parseInt(val);
+		}
+		catch (NumberFormatException e)
+		{
+			return 0;
+		}
+	}
+
+	public void imageLoaded(ImageLoader.Request req, BufferedImage image) {
+		int oldWidth = getIntrinsicWidth();
+		int oldHeight = getIntrinsicHeight();
+		Dimension size = (req.getWidth() == 0) ? null : ImageCache.getInstance().getSourceSize(url);
+		if (size != null)
+		{
+			imgWidth = size.width;
+			imgHeight = size.height;
+		}
+		else
+		{
+			imgWidth = image.getWidth();
+			imgHeight = image.getHeight();
+		}
+		this.image = image;
+		pending = false;
+		if (getIntrinsicWidth() != oldWidth || getIntrinsicHeight() != oldHeight)
+			intrinsicSizeChanged();
+		redraw();
+	}
+
+	public void imageFailed(ImageLoader.Request req, Exception e) {
+		System.err.println("ImgBox: " + req.getUrl() + ": " + e.getMessage());
+		error = true;
+		pending = false;
+		redraw();
+	}
+
+	/**
+	 * Asks the canvas to redraw the owner box with the new contents.
+	 */
+	private void redraw() {
+		Viewport viewport = getOwner().getViewport();
+		if (viewport != null)
+			viewport.redrawBox(getOwner());
 	}
 
 	/**
@@ -121,19 +160,37 @@ public class ReplacedImage extends ReplacedContent implements ImageObserver {
 	}
 
 	/**
-	 * @return the image
+	 * @return the last loaded image (possibly decoded to the displayed size) or <code>null</code> when not loaded yet
 	 */
 	public BufferedImage getImage() {
-		return img;
+		return image;
 	}
 
 	public void draw(Graphics2D g, int width, int height) {
-		this.g = g;
-		this.width = width;
-		this.height = height;
 		ctx.updateGraphics(g);
+		//the image is decoded or scaled to the displayed size once, then it is just copied
+		BufferedImage img = image;
+		if (img != null && (img.getWidth() != width || img.getHeight() != height))
+			img = null;
+		if (img == null && url != null && width > 0 && height > 0)
+		{
+			img = ImageCache.getInstance().getScaled(url, width, height);
+			if (img != null)
+				image = img;
+		}
+		if (img == null && !error && LOAD_IMAGES && url != null && width > 0 && height > 0)
+		{
+			//the image is displayed now, load it before the remaining ones; a finished request
+			//for the same size is not repeated, its result is kept even when the cache discards it
+			if (request == null || request.isCancelled()
+					|| (!pending && (request.getWidth() != width || request.getHeight() != height)))
+				requestImage(width, height);
+			ImageLoader.getInstance().setPriority(request, ImageLoader.PRIORITY_VISIBLE);
+		}
 		if (img != null)
-			g.drawImage(img, getOwner().getAbsoluteContentX(), getOwner().getAbsoluteContentY(), width, height, this);
+			g.drawImage(img, getOwner().getAbsoluteContentX(), getOwner().getAbsoluteContentY(), this);
+		else if (image != null) //loaded in another size, used until the new size is available
+			g.drawImage(image, getOwner().getAbsoluteContentX(), getOwner().getAbsoluteContentY(), width, height, this);
 		else if(error  == true)
 		{
 			g.drawImage(IconManager.getImage("/stopscale.png"),getOwner().getAbsoluteContentX()+2, getOwner().getAbsoluteContentY()+2,32,32, this);
@@ -147,15 +204,15 @@ public class ReplacedImage extends ReplacedContent implements ImageObserver {
 
 	@Override
 	public int getIntrinsicHeight() {
-		if (img != null)
-			return img.getHeight();
+		if (imgHeight != -1)
+			return imgHeight;
 		else return 20;
 	}
 
 	@Override
 	public int getIntrinsicWidth() {
-		if (img != null)
-			return img.getWidth();
+		if (imgWidth != -1)
+			return imgWidth;
 		else return 20;
 	}
 
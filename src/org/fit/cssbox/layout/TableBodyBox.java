@@ -40,6 +40,14 @@ public class TableBodyBox extends BlockBox
     protected TableCellBox[][] cells;
     /** cell spacing */
     protected int spacing = 2;
+    /** minimal cell widths by [row][column], a spanned cell width is divided among its columns; <code>null</code> when not computed */
+    protected int[][] minWidths;
+    /** maximal cell widths by [row][column], a spanned cell width is divided among its columns; <code>null</code> when not computed */
+    protected int[][] maxWidths;
+    /** minimal column widths */
+    protected int[] minColumnWidths;
+    /** maximal column widths */
+    protected int[] maxColumnWidths;
     
     //====================================================================================
     
@@ -151,21 +159,8 @@ public class TableBodyBox extends BlockBox
      */ 
     public int getMinimalColumnWidth(int col)
     {
-        int ret = 0;
-        int r = 0;
-        while (r < getRowCount())
-        {
-            TableCellBox cell = cells[col][r];
-            if (cell != null)
-            {
-                int min = cell.getMinimalWidth() / cell.getColspan();
-                if (min > ret) ret = min;
-                r += cell.getRowspan();
-            }
-            else
-                r++;
-        }
-        return ret;
+        analyzeCells();
+        return minColumnWidths[col];
     }
 
     /**
@@ -175,21 +170,70 @@ public class TableBodyBox extends BlockBox
      */ 
     public int getMaximalColumnWidth(int col)
     {
-        int ret = 0;
-        int r = 0;
-        while (r < getRowCount())
+        analyzeCells();
+        return maxColumnWidths[col];
+    }
+    
+    /**
+     * Computes the minimal and maximal widths of all the cells and columns when they haven't
+     * been computed yet. The widths of each cell are obtained only once.
+     */
+    public void analyzeCells()
+    {
+        if (minWidths == null)
         {
-            TableCellBox cell = cells[col][r];
-            if (cell != null)
+            int nrows = getRowCount();
+            minWidths = new int[nrows][numCols];
+            maxWidths = new int[nrows][numCols];
+            minColumnWidths = new int[numCols];
+            maxColumnWidths = new int[numCols];
+            for (int r = 0; r < nrows; r++)
             {
-                int max = cell.getMaximalWidth() / cell.getColspan();
-                if (max > ret) ret = max;
-                r += cell.getRowspan();
+                int c = 0;
+                while (c < numCols)
+                {
+                    TableCellBox cell = cells[c][r];
+                    if (cell != null)
+                    {
+                        int span = cell.getColspan();
+                        if (cell.getRow() == r && cell.getColumn() == c)
+                        {
+                            int min = cell.getMinimalWidth() / span;
+                            int max = cell.getMaximalWidth() / span;
+                            for (int i = c; i < c + span && i < numCols; i++)
+                            {
+                                minWidths[r][i] = min;
+                                maxWidths[r][i] = max;
+                                if (min > minColumnWidths[i]) minColumnWidths[i] = min;
+                                if (max > maxColumnWidths[i]) maxColumnWidths[i] = max;
+                            }
+                        }
+                        c += span;
+                    }
+                    else
+                        c++;
+                }
             }
-            else
-                r++;
         }
-        return ret;
+    }
+    
+    /**
+     * Discards the computed cell widths. They are computed again when required.
+     */
+    public void invalidateCellWidths()
+    {
+        minWidths = null;
+        maxWidths = null;
+        minColumnWidths = null;
+        maxColumnWidths = null;
+    }
+    
+    @Override
+    protected void discardIntrinsicWidths()
+    {
+        super.discardIntrinsicWidths();
+        //the cell widths change together with the cell contents
+        invalidateCellWidths();
     }
     
     /**
@@ -201,6 +245,7 @@ public class TableBodyBox extends BlockBox
      */ 
     public void updateColumn(int c, TableColumn col)
     {
+        analyzeCells();
         int r = 0;
         while (r < getRowCount())
         {
@@ -209,11 +254,11 @@ public class TableBodyBox extends BlockBox
             {
             	cell.setOwnerColumn(col);
                 //minimal width
-                int min = cell.getMinimalWidth() / cell.getColspan();
+                int min = minWidths[cell.getRow()][c];
                 if (min > col.getMinimalWidth())
                     col.setMinimalWidth(min);
                 //maximal width
-                int max = cell.getMaximalWidth() / cell.getColspan();
+                int max = maxWidths[cell.getRow()][c];
                 if (max > col.getMaximalWidth())
                     col.setMaximalWidth(max);
                 //fixed width and percentages
@@ -241,7 +286,35 @@ public class TableBodyBox extends BlockBox
                 r++;
         }
     }
-    
+
+    /**
+     * Assigns the owner column to the cells of a column without analyzing their widths.
+     * This is used by the fixed table layout where the cell contents do not influence
+     * the column widths.
+     * @param c the column index
+     * @param col the owner column
+     */
+    public void assignColumn(int c, TableColumn col)
+    {
+        for (int r = 0; r < getRowCount(); r++)
+        {
+            TableCellBox cell = cells[c][r];
+            if (cell != null)
+                cell.setOwnerColumn(col);
+        }
+    }
+
+    /**
+     * Obtains the cell that occupies the given position.
+     * @param c the column index
+     * @param r the row index
+     * @return the cell or <code>null</code> when there is no cell at this position
+     */
+    public TableCellBox getCell(int c, int r)
+    {
+        return cells[c][r];
+    }
+
     //====================================================================================
     
     @Override
@@ -277,6 +350,9 @@ public class TableBodyBox extends BlockBox
 
         int rowY[] = new int[getRowCount()]; //Y offests of the rows
         
+        //the cells are independent once the column widths are known
+        boolean prelaid = viewport != null && viewport.isParallelLayout() && layoutCellsInParallel(wlimit, columns);
+        
         for (int r = 0; r < getRowCount(); r++)
         {
             TableRowBox row = getRow(r);
@@ -292,14 +368,14 @@ public class TableBodyBox extends BlockBox
                     int firstrow = cell.getRow();
                     int lastrow = cell.getRow() + cell.getRowspan() - 1;
                     //compute cell width according to span
-                    int cw = columns.elementAt(c).getWidth();
-                    for (int i = 1; i < cell.getColspan(); i++)
-                        cw += spacing + columns.elementAt(c+i).getWidth();
-                    cell.setWidth(cw);
+                    int cw = getCellWidth(c, cell, columns);
+                    if (r != firstrow || !prelaid) //the cells laid out in parallel have the width set already
+                        cell.setWidth(cw);
                     //compute the position
                     if (r == firstrow)
                     {
-                        cell.doLayout(wlimit, true, true);
+                        if (!prelaid)
+                            cell.doLayout(wlimit, true, true);
                         cell.setPosition(x, 0);
                         //int ch = cell.getHeight() / cell.getRowspan();
                         if (cell.getRowspan() == 1)
@@ -381,6 +457,44 @@ public class TableBodyBox extends BlockBox
 	/**
      * Goes through the list of child boxes and creates the anonymous rows if necessary.
      */
+    /**
+     * Computes the total width of a cell from the widths of the columns it spans.
+     */
+    private int getCellWidth(int c, TableCellBox cell, Vector<TableColumn> columns)
+    {
+        int cw = columns.elementAt(c).getWidth();
+        for (int i = 1; i < cell.getColspan(); i++)
+            cw += spacing + columns.elementAt(c+i).getWidth();
+        return cw;
+    }
+    
+    /**
+     * Sets the widths of all the cells and lays them out in parallel. Nothing is done
+     * when there are not enough cells for the parallel layout.
+     * @param wlimit the width available for the cells
+     * @param columns the table columns with the widths computed
+     * @return <code>true</code> when the cells have been laid out
+     */
+    private boolean layoutCellsInParallel(int wlimit, Vector<TableColumn> columns)
+    {
+        List<TableCellBox> list = new ArrayList<TableCellBox>();
+        for (int r = 0; r < getRowCount(); r++)
+        {
+            for (int c = 0; c < getColumnCount(); c++)
+            {
+                TableCellBox cell = cells[c][r];
+                if (cell != null && cell.getRow() == r && cell.getColumn() == c)
+                    list.add(cell);
+            }
+        }
+        if (list.size() < ParallelLayout.MIN_CELLS)
+            return false;
+        for (TableCellBox cell : list)
+            cell.setWidth(getCellWidth(cell.getColumn(), cell, columns));
+        ParallelLayout.layoutCells(list, wlimit);
+        return true;
+    }
+    
     private void organizeContent()
     {
         TableRowBox anonrow = null;
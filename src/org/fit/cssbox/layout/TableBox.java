@@ -53,6 +53,16 @@ public class TableBox extends BlockBox
     /** true if the column width have been already calculated */
     private boolean columnsCalculated = false;
 
+    /** the number of columns specified in the table, the remaining ones are created during the layout */
+    private int declaredColumns;
+
+    /** true if the fixed table layout has been requested using the table-layout property */
+    private boolean fixedLayout = false;
+    
+    /** the element shared by the anonymous columns. It is created before the layout, so that the DOM
+     * is not modified while the tables are laid out in parallel. */
+    private Element anoncol;
+
     //====================================================================================
     
     /**
@@ -98,6 +108,17 @@ public class TableBox extends BlockBox
 		return wset; //the table has fixed width only if set explicitly
 	}
 	
+	/**
+	 * Checks whether the fixed table layout algorithm is used for this table. The fixed layout
+	 * is only used when requested by the table-layout property and the table width is set
+	 * explicitly, otherwise the automatic layout is used (CSS 2.1 section 17.5.2).
+	 * @return <code>true</code> when the column widths don't depend on the cell contents
+	 */
+	public boolean isFixedLayout()
+	{
+	    return fixedLayout && wset;
+	}
+	
     //====================================================================================
 
     @Override
@@ -105,8 +126,50 @@ public class TableBox extends BlockBox
     {
         loadTableStyle();
         organizeContent(); //organize the child elements according to their display property
+        anoncol = TableColumn.createAnonymousColumn(getParent().getElement().getOwnerDocument());
     }
 	
+    @Override
+    protected void resetBox()
+    {
+        super.resetBox();
+        //the anonymous columns are created again, the remaining ones are computed from scratch
+        columns.setSize(declaredColumns);
+        for (Iterator<TableColumn> it = columns.iterator(); it.hasNext(); )
+            it.next().resetColumn();
+        columnsCalculated = false;
+        //the cell sizes may depend on the containing block size
+        invalidateCellWidths();
+    }
+    
+    /**
+     * Discards the minimal and maximal cell widths computed for the header, footer and all
+     * the bodies. This must be called when the contents of some cell have changed.
+     */
+    public void invalidateCellWidths()
+    {
+        if (header != null)
+            header.invalidateCellWidths();
+        if (footer != null)
+            footer.invalidateCellWidths();
+        for (Iterator<TableBodyBox> it = bodies.iterator(); it.hasNext(); )
+            it.next().invalidateCellWidths();
+    }
+    
+    /**
+     * Computes the minimal and maximal widths of all the cells in a single pass when they
+     * haven't been computed yet.
+     */
+    private void analyzeCells()
+    {
+        if (header != null)
+            header.analyzeCells();
+        if (footer != null)
+            footer.analyzeCells();
+        for (Iterator<TableBodyBox> it = bodies.iterator(); it.hasNext(); )
+            it.next().analyzeCells();
+    }
+    
     @Override
     public boolean doLayout(int widthlimit, boolean force, boolean linestart)
     {
@@ -253,8 +316,11 @@ public class TableBox extends BlockBox
     }
     
     @Override
-    protected int getMaximalContentWidth()
+    protected int computeMaximalContentWidth()
     {
+        //with the fixed layout, the cells don't influence the table width
+        if (isFixedLayout() && !wrelative)
+            return content.width;
         int ret = 0;
         if (header != null)
         {
@@ -275,8 +341,10 @@ public class TableBox extends BlockBox
     }
 
     @Override
-    protected int getMinimalContentWidth()
+    protected int computeMinimalContentWidth()
     {
+        if (isFixedLayout() && !wrelative)
+            return content.width;
         int ret = 0;
         if (header != null)
         {
@@ -344,9 +412,17 @@ public class TableBox extends BlockBox
         //create the columns that haven't been specified explicitely
         determineColumnCount();
         while (columns.size() < columnCount)
-            columns.add(new TableColumn(TableColumn.createAnonymousColumn(getParent().getElement().getOwnerDocument()), g, ctx));
+            columns.add(new TableColumn(anoncol, g, ctx));
+        
+        //the fixed layout doesn't need to analyze the cells at all
+        if (isFixedLayout())
+        {
+            calculateFixedColumns();
+            return;
+        }
         
         //load the parametres and ensure the minimal column widths
+        analyzeCells();
         if (header != null)
             updateColumns(header);
         if (footer != null)
@@ -509,6 +585,117 @@ public class TableBox extends BlockBox
         columnsCalculated = true;
     }
     
+    /**
+     * Calculates the column widths using the fixed table layout algorithm (CSS 2.1 section 17.5.2.1).
+     * The widths are taken from the column elements and the cells of the first row only,
+     * the remaining space is divided equally among the columns with no width specified.
+     * The contents of the cells are not examined.
+     */
+    private void calculateFixedColumns()
+    {
+        int totalw = content.width - (columns.size() + 1) * spacing; //total space for the columns
+        if (totalw < 0) totalw = 0;
+        
+        //the columns with no width specified take the width from the first row cells
+        TableBodyBox first = getFirstRowBody();
+        if (first != null)
+        {
+            for (int c = 0; c < columns.size() && c < first.getColumnCount(); c++)
+            {
+                TableCellBox cell = first.getCell(c, 0);
+                if (cell != null && cell.getColumn() == c && cell.wset)
+                {
+                    int span = cell.getColspan();
+                    for (int i = c; i < c + span && i < columns.size(); i++)
+                    {
+                        TableColumn col = columns.elementAt(i);
+                        if (!col.wset)
+                        {
+                            col.wset = true;
+                            if (cell.isRelative())
+                            {
+                                col.setRelative(true);
+                                col.percent = cell.percent / span;
+                            }
+                            else
+                                col.abswidth = cell.getContentWidth() / span;
+                        }
+                    }
+                }
+            }
+        }
+        
+        //set the columns with a known width
+        int sumset = 0;
+        int nonecnt = 0;
+        for (int i = 0; i < columns.size(); i++)
+        {
+            TableColumn col = columns.elementAt(i);
+            if (col.wset)
+            {
+                int neww = col.wrelative ? col.percent * totalw / 100 : col.abswidth;
+                col.setColumnWidth(neww);
+                sumset += neww;
+            }
+            else
+                nonecnt++;
+        }
+        
+        //divide the remaining space equally; when all the widths are known, the space is added to all the columns
+        int remain = totalw - sumset;
+        if (remain < 0) remain = 0;
+        int cnt = (nonecnt > 0) ? nonecnt : columns.size();
+        for (int i = 0; i < columns.size() && cnt > 0; i++)
+        {
+            TableColumn col = columns.elementAt(i);
+            if (nonecnt == 0 || !col.wset)
+            {
+                int add = remain / cnt;
+                col.setColumnWidth((nonecnt == 0 ? col.getWidth() : 0) + add);
+                remain -= add;
+                cnt--;
+            }
+        }
+        
+        //bind the cells to their columns
+        for (int i = 0; i < columns.size(); i++)
+        {
+            TableColumn col = columns.elementAt(i);
+            if (header != null && i < header.getColumnCount())
+                header.assignColumn(i, col);
+            if (footer != null && i < footer.getColumnCount())
+                footer.assignColumn(i, col);
+            for (Iterator<TableBodyBox> it = bodies.iterator(); it.hasNext(); )
+            {
+                TableBodyBox body = it.next();
+                if (i < body.getColumnCount())
+                    body.assignColumn(i, col);
+            }
+        }
+        
+        columnsCalculated = true;
+    }
+    
+    /**
+     * Finds the body that contains the first row of the table. The header rows are always
+     * displayed first and the footer rows last.
+     * @return the body or <code>null</code> when the table has no rows
+     */
+    private TableBodyBox getFirstRowBody()
+    {
+        if (header != null && header.getRowCount() > 0)
+            return header;
+        for (Iterator<TableBodyBox> it = bodies.iterator(); it.hasNext(); )
+        {
+            TableBodyBox body = it.next();
+            if (body.getRowCount() > 0)
+                return body;
+        }
+        if (footer != null && footer.getRowCount() > 0)
+            return footer;
+        return null;
+    }
+    
     @Override
 	protected void loadBlockStyle()
 	{
@@ -535,6 +722,9 @@ public class TableBox extends BlockBox
   		}
   		else
   			spacing = dec.getLength(getLengthValue("border-spacing"), false, DEFAULT_SPACING, 0, 0);
+  		//layout algorithm
+  		CSSProperty layout = style.getProperty("table-layout");
+  		fixedLayout = (layout != null && layout.toString().equals("fixed"));
     }
     
     /**
@@ -609,6 +799,7 @@ public class TableBox extends BlockBox
         	anonbody.endChild = anonbody.nested.size();
         	addSubBox(anonbody);
         }
+        declaredColumns = columns.size();
     }
 
     
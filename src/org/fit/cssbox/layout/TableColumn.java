@@ -147,6 +147,21 @@ public class TableColumn extends BlockBox
         bounds.width = content.width;
     }
     
+    /**
+     * Discards the values obtained from the cells during the previous layout.
+     */
+    public void resetColumn()
+    {
+        mincwidth = 0;
+        maxcwidth = 0;
+        wset = false;
+        wrelative = false;
+        percent = 0;
+        abswidth = 0;
+        content = new Dimension(0, 0);
+        loadAttributes();
+    }
+    
     /**
      * @return the maximal width of the cell contents
      */
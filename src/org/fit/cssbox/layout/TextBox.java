@@ -58,6 +58,9 @@ public class TextBox extends Box implements Inline
     /** Indicates whether to collapse whitespaces at all */
     protected boolean collapsews;
     
+    /** The measurements of the text string, shared with the boxes split from this one */
+    protected TextRun run;
+    
     //===================================================================
     
     /**
@@ -80,6 +83,21 @@ public class TextBox extends Box implements Inline
         collapsews = true;
     }
 
+    /**
+     * Creates a copy of another text box that shares the processed text and its measurements.
+     * @param src the source text box
+     */
+    protected TextBox(TextBox src)
+    {
+        super(src.textNode, src.g, src.ctx);
+        textNode = src.textNode;
+        copyValues(src);
+        textStart = 0;
+        textEnd = text.length();
+        minwidth = src.minwidth;
+        maxwidth = src.maxwidth;
+    }
+    
     /**
      * Copy all the values from another text box.
      * @param src the source text box
@@ -87,7 +105,8 @@ public class TextBox extends Box implements Inline
     public void copyValues(TextBox src)
     {
         super.copyValues(src);
-        text = new String(src.text);
+        text = src.text; //the strings are immutable, no need to copy
+        run = src.run;
         ignoreinitialws = false; //only the first box should ignore
         collapsews = src.collapsews;
     }
@@ -98,9 +117,7 @@ public class TextBox extends Box implements Inline
      */
     public TextBox copyTextBox()
     {
-        TextBox ret = new TextBox(textNode, g, ctx);
-        ret.copyValues(this);
-        return ret;
+        return new TextBox(this);
     }
     
     public String toString()
@@ -113,6 +130,14 @@ public class TextBox extends Box implements Inline
     {
     }
     
+    @Override
+    protected void resetBox()
+    {
+        textStart = 0;
+        textEnd = text.length();
+        ignoreinitialws = false;
+    }
+    
     @Override
     public void setParent(ElementBox parent)
     {
@@ -143,6 +168,19 @@ public class TextBox extends Box implements Inline
     {
         return true;
     }
+    
+    /**
+     * Obtains the measurements of the text string for the current font. They are computed
+     * on the first use and shared by all the boxes created by splitting this box.
+     * @return the text measurements
+     */
+    protected TextRun getTextRun()
+    {
+        FontMetrics fm = ctx.getFontMetrics();
+        if (run == null || !run.isFor(text, fm))
+            run = new TextRun(text, fm);
+        return run;
+    }
 
     @Override
     public boolean isDisplayed()
@@ -175,7 +213,18 @@ public class TextBox extends Box implements Inline
         //When this is the original box, apply the whitespace. For the copied boxes, the whitespace has been already applied (they contain
         //a copy of the original, already processed content). 
         if (!splitted)
-            applyWhiteSpace(); 
+        {
+            applyWhiteSpace();
+            //the text has been measured already, the new content must be measured again
+            if (run != null)
+            {
+                ctx.updateForGraphics(null, g);
+                minwidth = computeMinimalWidth();
+                maxwidth = computeMaximalWidth();
+                if (getParent() != null)
+                    getParent().invalidateIntrinsicWidths();
+            }
+        }
     }
     
     /**
@@ -264,7 +313,7 @@ public class TextBox extends Box implements Inline
 	@Override
     public boolean isWhitespace()
     {
-        return getText().trim().length() == 0;
+        return isBlank(textStart, textEnd);
     }
     
     @Override
@@ -378,7 +427,8 @@ public class TextBox extends Box implements Inline
     @Override
     public boolean canSplitInside()
     {
-        return (getText().indexOf(' ') != -1);
+        int i = text.indexOf(' ', textStart);
+        return (i != -1 && i < textEnd);
     }
     
     @Override
@@ -460,9 +510,9 @@ public class TextBox extends Box implements Inline
         
         boolean split = false;
         int wlimit = getAvailableContentWidth();
-        boolean empty = (text.trim().length() == 0);
+        boolean empty = isBlank(0, text.length());
         int end = text.length();
-        FontMetrics fm = g.getFontMetrics();
+        FontMetrics fm = ctx.getFontMetrics();
         int w = 0, h = 0;
         if (!empty || !linestart) //ignore empty text elements at the begining of a line
         {
@@ -471,36 +521,43 @@ public class TextBox extends Box implements Inline
                 while (textStart < end && text.charAt(textStart) == ' ')
                     textStart++;
             //try to place the text
-            do
+            TextRun tr = getTextRun();
+            w = tr.getWidth(textStart, end);
+            h = fm.getHeight();
+            if (w > wlimit) //exceeded - try to split
             {
-                w = fm.stringWidth(text.substring(textStart, end));
-                h = fm.getHeight();
-                if (w > wlimit) //exceeded - try to split
+                if (empty) //empty or just spaces - don't place at all
                 {
-                    if (empty) //empty or just spaces - don't place at all
-                    {
-                        w = 0; h = 0; split = false; break;
-                    }
-                    int wordend = text.substring(0, end).lastIndexOf(' '); //find previous word
-                    while (wordend > 0 && text.charAt(wordend-1) == ' ') wordend--; //skip trailing spaces
+                    w = 0; h = 0; split = false;
+                }
+                else
+                {
+                    //the last word end that fits
+                    int wordend = findWordEnd(tr.fitChars(textStart, end, wlimit));
                     if (wordend <= textStart) //no previous word, cannot split
                     {
+                        //the first word does not fit
+                        int first = findNextWordEnd(textStart);
+                        w = tr.getWidth(textStart, first);
                         if (!force) //let it split as good as possible
                         {
                             end = textStart;
                             split = false;
                         }
                         else
+                        {
+                            end = first;
                             split = true;
-                        break;
+                        }
                     }
                     else
                     {
                         end = wordend;
+                        w = tr.getWidth(textStart, end);
                         split = true;
                     }
                 }
-            } while (end > textStart && w > wlimit);
+            }
         }
         textEnd = end;
         bounds.setSize(w, h);
@@ -550,20 +607,19 @@ public class TextBox extends Box implements Inline
     {
         //returns the length of the longest word
         int ret = 0;
-        String t = getText();
-        if (t.length() > 0)
+        if (textEnd > textStart)
         {
-            FontMetrics fm = g.getFontMetrics();
-            int s1 = 0;
-            int s2 = t.indexOf(' ');
+            TextRun tr = getTextRun();
+            int s1 = textStart;
+            int s2 = text.indexOf(' ', s1);
             do
             {
-                if (s2 == -1) s2 = t.length();
-                int w = fm.stringWidth(t.substring(s1, s2));
+                if (s2 == -1 || s2 > textEnd) s2 = textEnd;
+                int w = tr.getWidth(s1, s2);
                 if (w > ret) ret = w;
                 s1 = s2 + 1;
-                s2 = t.indexOf(' ', s1);
-            } while (s1 < t.length() && s2 < t.length());
+                s2 = text.indexOf(' ', s1);
+            } while (s1 < textEnd);
         }
         return ret;
     }
@@ -577,8 +633,43 @@ public class TextBox extends Box implements Inline
     private int computeMaximalWidth()
     {
         //returns the lenth of the whole string
-        FontMetrics fm = g.getFontMetrics();
-        return fm.stringWidth(getText());
+        return getTextRun().getWidth(textStart, textEnd);
+    }
+    
+    /**
+     * Checks whether the given part of the text consists of whitespaces only.
+     */
+    private boolean isBlank(int start, int end)
+    {
+        for (int i = start; i < end; i++)
+            if (text.charAt(i) > ' ')
+                return false;
+        return true;
+    }
+    
+    /**
+     * Finds the last word end not after the given position, i.e. the start of the last sequence of spaces.
+     * @param pos the position in the text
+     * @return the word end position or -1 when there is no space before the position 
+     */
+    private int findWordEnd(int pos)
+    {
+        int wordend = text.lastIndexOf(' ', pos);
+        while (wordend > 0 && text.charAt(wordend-1) == ' ') wordend--; //skip trailing spaces
+        return wordend;
+    }
+    
+    /**
+     * Finds the first word end after the given position.
+     * @param pos the position in the text
+     * @return the word end position or the text length when there is no word end
+     */
+    private int findNextWordEnd(int pos)
+    {
+        int wordend = text.indexOf(' ', pos + 1);
+        while (wordend != -1 && text.charAt(wordend-1) == ' ')
+            wordend = text.indexOf(' ', wordend + 1);
+        return (wordend == -1) ? text.length() : wordend;
     }
 
     /** 
@@ -592,14 +683,14 @@ public class TextBox extends Box implements Inline
         int y = absbounds.y;
 
         //Draw the string
-        if (textEnd > textStart)
+        if (textEnd > textStart && isInDrawArea())
         {
-            String t = text.substring(textStart, textEnd);
+            char[] chars = getTextRun().getChars();
             FontMetrics fm = g.getFontMetrics();
-            Rectangle2D rect = fm.getStringBounds(t, g);
+            Rectangle2D rect = fm.getStringBounds(chars, textStart, textEnd, g);
             Shape oldclip = g.getClip();
             g.setClip(clipblock.getAbsoluteContentBounds());
-            g.drawString(t, x + (int) rect.getX(), y - (int) rect.getY());
+            g.drawChars(chars, textStart, textEnd - textStart, x + (int) rect.getX(), y - (int) rect.getY());
             g.setClip(oldclip);
         }
     }
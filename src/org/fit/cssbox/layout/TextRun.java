@@ -0,0 +1,153 @@
+/*
+ * TextRun.java
+ * Copyright (c) 2026 Internet Adventure contributors
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fit.cssbox.layout;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+
+/**
+ * Measurements of a text string in a particular font. The character advances are obtained
+ * once for the whole string and the width of any substring is then computed from the cumulative
+ * advances without creating the substring. The widths are the same as the ones returned by
+ * {@link FontMetrics#stringWidth(String)} for the corresponding substrings.
+ */
+public class TextRun
+{
+    private String text;
+    private char[] chars;
+    private FontMetrics fm;
+    private Font font;
+    private FontRenderContext frc;
+
+    /** Cumulative advances: the position of each character and the end position. <code>null</code>
+     * for the text that requires a complex layout, the widths are measured directly then. */
+    private float[] positions;
+
+    /**
+     * Measures a text string.
+     * @param text the text string
+     * @param fm the font metrics of the used font
+     */
+    public TextRun(String text, FontMetrics fm)
+    {
+        this.text = text;
+        this.fm = fm;
+        font = fm.getFont();
+        frc = fm.getFontRenderContext();
+        chars = text.toCharArray();
+        if (!font.hasLayoutAttributes() && isSimple(chars))
+        {
+            GlyphVector gv = font.createGlyphVector(frc, chars);
+            if (gv.getNumGlyphs() == chars.length)
+            {
+                float[] xy = gv.getGlyphPositions(0, chars.length + 1, null);
+                positions = new float[chars.length + 1];
+                for (int i = 0; i <= chars.length; i++)
+                    positions[i] = xy[2 * i];
+            }
+        }
+    }
+
+    /**
+     * Checks whether this run may be used for measuring the given text with the given metrics.
+     * @param text the text string
+     * @param fm the font metrics
+     * @return <code>true</code> when the run has been created for the same string and font
+     */
+    public boolean isFor(String text, FontMetrics fm)
+    {
+        return this.text == text
+               && (this.fm == fm || (font.equals(fm.getFont()) && frc.equals(fm.getFontRenderContext())));
+    }
+
+    /**
+     * @return the measured text
+     */
+    public String getText()
+    {
+        return text;
+    }
+
+    /**
+     * @return the characters of the measured text. The array must not be modified.
+     */
+    public char[] getChars()
+    {
+        return chars;
+    }
+
+    /**
+     * Computes the width of a substring.
+     * @param start the start index
+     * @param end the end index (exclusive)
+     * @return the width of the substring in pixels
+     */
+    public int getWidth(int start, int end)
+    {
+        if (end <= start)
+            return 0;
+        else if (positions != null)
+            return (int) (0.5 + (positions[end] - positions[start]));
+        else
+            return fm.charsWidth(chars, start, end - start);
+    }
+
+    /**
+     * Finds how many characters fit to the given width.
+     * @param start the start index
+     * @param end the maximal end index (exclusive)
+     * @param width the available width
+     * @return the greatest end index from <code>start</code> to <code>end</code> such that the
+     * substring fits to the given width
+     */
+    public int fitChars(int start, int end, int width)
+    {
+        int lo = start; //always fits
+        int hi = end;
+        while (lo < hi)
+        {
+            int mid = (lo + hi + 1) >>> 1;
+            if (getWidth(start, mid) <= width)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    //===================================================================================
+
+    /**
+     * Checks whether the text may be measured glyph by glyph. Combining marks and the complex
+     * scripts (from Hebrew up) require a text layout.
+     */
+    private static boolean isSimple(char[] chars)
+    {
+        for (int i = 0; i < chars.length; i++)
+        {
+            char ch = chars[i];
+            if (ch >= 0x0300 && (ch < 0x0370 || ch >= 0x0590))
+                return false;
+        }
+        return true;
+    }
+
+}
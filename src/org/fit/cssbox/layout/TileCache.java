@@ -0,0 +1,211 @@
+/*
+ * TileCache.java
+ * Copyright (c) 2026 Internet Adventure contributors
+ *
+ * CSSBox is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CSSBox is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with CSSBox. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fit.cssbox.layout;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rendered page divided to fixed-size tiles. The tiles are drawn on demand when some part
+ * of the page is displayed and the recently used tiles are kept in a bounded cache, so that
+ * the memory needed does not depend on the page length. The tiles must be used from a single
+ * thread (normally the event dispatch thread).
+ */
+public class TileCache
+{
+    /** Tile width and height in pixels */
+    public static final int TILE_SIZE = 256;
+
+    /** Boxes this close to a tile are drawn as well, the glyphs may slightly overflow the boxes */
+    private static final int DRAW_MARGIN = 4;
+
+    private Viewport viewport;
+    private int width;
+    private int height;
+    private int capacity;
+    private LinkedHashMap<Long, BufferedImage> tiles;
+
+    /**
+     * Creates an empty tile cache for a laid out viewport.
+     * @param viewport the viewport with the computed absolute positions
+     * @param width the total width of the rendered area
+     * @param height the total height of the rendered area
+     * @param capacity the maximal number of tiles kept
+     */
+    public TileCache(Viewport viewport, int width, int height, int capacity)
+    {
+        this.viewport = viewport;
+        this.width = width;
+        this.height = height;
+        this.capacity = capacity;
+        tiles = new LinkedHashMap<Long, BufferedImage>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest)
+            {
+                return size() > TileCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the total width of the rendered area
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * @return the total height of the rendered area
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * @return the number of tiles currently kept
+     */
+    public int size()
+    {
+        return tiles.size();
+    }
+
+    /**
+     * Makes sure that at least the given number of tiles may be kept, e.g. all the tiles of the
+     * visible area, so that the tiles being displayed are not dropped before they are used.
+     * @param n the minimal number of tiles
+     */
+    public void ensureCapacity(int n)
+    {
+        if (n > capacity)
+            capacity = n;
+    }
+
+    /**
+     * Draws the given area of the page. The missing tiles are drawn first.
+     * @param g the destination graphics context
+     * @param area the area to be drawn in the page coordinates
+     */
+    public void paint(Graphics g, Rectangle area)
+    {
+        Rectangle r = area.intersection(new Rectangle(0, 0, width, height));
+        if (r.isEmpty()) return;
+        for (int row = r.y / TILE_SIZE; row <= (r.y + r.height - 1) / TILE_SIZE; row++)
+            for (int col = r.x / TILE_SIZE; col <= (r.x + r.width - 1) / TILE_SIZE; col++)
+                g.drawImage(getTile(col, row), col * TILE_SIZE, row * TILE_SIZE, null);
+    }
+
+    /**
+     * Draws all the missing tiles in the given area without displaying them.
+     * @param area the area in the page coordinates
+     */
+    public void prefetch(Rectangle area)
+    {
+        Rectangle r = area.intersection(new Rectangle(0, 0, width, height));
+        if (r.isEmpty()) return;
+        for (int row = r.y / TILE_SIZE; row <= (r.y + r.height - 1) / TILE_SIZE; row++)
+            for (int col = r.x / TILE_SIZE; col <= (r.x + r.width - 1) / TILE_SIZE; col++)
+                getTile(col, row);
+    }
+
+    /**
+     * Discards the tiles that intersect the given area. They will be drawn again when needed.
+     * @param area the changed area in the page coordinates
+     */
+    public void invalidate(Rectangle area)
+    {
+        for (Iterator<Long> it = tiles.keySet().iterator(); it.hasNext(); )
+        {
+            long key = it.next();
+            Rectangle tile = new Rectangle((int) (key >>> 32) * TILE_SIZE, (int) key * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+            if (tile.intersects(area))
+                it.remove();
+        }
+    }
+
+    /**
+     * Discards all the tiles.
+     */
+    public void clear()
+    {
+        tiles.clear();
+    }
+
+    /**
+     * Draws the whole page to a single image.
+     * @return the page image
+     */
+    public BufferedImage render()
+    {
+        BufferedImage img = new BufferedImage(Math.max(width, 1), Math.max(height, 1), BufferedImage.TYPE_INT_RGB);
+        Graphics2D ig = img.createGraphics();
+        ig.setColor(getBackground());
+        ig.fillRect(0, 0, img.getWidth(), img.getHeight());
+        ig.setColor(Color.black);
+        viewport.draw(ig);
+        ig.dispose();
+        return img;
+    }
+
+    //===================================================================================
+
+    private BufferedImage getTile(int col, int row)
+    {
+        Long key = ((long) col << 32) | row;
+        BufferedImage tile = tiles.get(key);
+        if (tile == null)
+        {
+            tile = drawTile(col, row);
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    private BufferedImage drawTile(int col, int row)
+    {
+        int x = col * TILE_SIZE;
+        int y = row * TILE_SIZE;
+        BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D ig = tile.createGraphics();
+        ig.setColor(getBackground());
+        ig.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+        ig.setColor(Color.black);
+        ig.translate(-x, -y);
+        ig.setClip(x, y, TILE_SIZE, TILE_SIZE);
+        viewport.draw(ig, new Rectangle(x - DRAW_MARGIN, y - DRAW_MARGIN, TILE_SIZE + 2 * DRAW_MARGIN, TILE_SIZE + 2 * DRAW_MARGIN));
+        ig.dispose();
+        return tile;
+    }
+
+    private Color getBackground()
+    {
+        Color bg = viewport.getBgcolor();
+        return (bg == null) ? Color.white : bg;
+    }
+
+}
@@ -20,8 +20,13 @@ package org.fit.cssbox.layout;
 
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Vector;
 
+import javax.swing.SwingUtilities;
+
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
@@ -46,6 +51,11 @@ public class Viewport extends BlockBox
     protected ElementBox lastparent = null;
     private int maxx; //maximal X position of all the content
     private int maxy; //maximal Y position of all the content
+    private BoxIndex boxIndex; //spatial index of the boxes, created on demand after the layout
+    private Rectangle drawArea; //the area being currently drawn or null for the whole page
+    private BoxIndex drawIndex; //the box index used for skipping the subtrees outside of the drawn area
+    private BrowserCanvas canvas; //the canvas that displays the viewport
+    private boolean parallelLayout = false; //lay out the independent subtrees in parallel
 
     
     public Viewport(Element e, Graphics2D g, VisualContext ctx, BoxFactory factory, Element root, int width, int height)
@@ -105,79 +115,62 @@ public class Viewport extends BlockBox
         return rootBox;
     }
     
+    /**
+     * Finds the first element box with the given element name.
+     * @param name the element name
+     * @param case_sensitive whether the name comparison is case sensitive
+     * @return the element box or <code>null</code> when there is no such box
+     */
     public ElementBox getElementBoxByName(String name, boolean case_sensitive)
     {
         if (rootBox == null)
             return null;
-        else
-            return recursiveFindElementBoxByName(rootBox, name, case_sensitive);
+        for (ElementBox box : factory.getElementBoxes(name))
+        {
+            if (!case_sensitive || box.getElement().getTagName().equals(name))
+                return box;
+        }
+        return null;
     }
     
+    /**
+     * Finds all the element boxes with the given element name.
+     * @param name the element name
+     * @param case_sensitive whether the name comparison is case sensitive
+     * @return the list of the boxes in the document order or <code>null</code> when the viewport is empty
+     */
     public ArrayList<ElementBox> getElementsBoxByName(String name, boolean case_sensitive)
     {
-    	ArrayList<ElementBox> boxes = new ArrayList<ElementBox>();
         if (rootBox == null)
             return null;
-        else
-        	recursiveFindElementsBoxByName(rootBox, name, case_sensitive, boxes);
+        ArrayList<ElementBox> boxes = new ArrayList<ElementBox>();
+        for (ElementBox box : factory.getElementBoxes(name))
+        {
+            if (!case_sensitive || box.getElement().getTagName().equals(name))
+                boxes.add(box);
+        }
         return boxes;
     }
     
-    
+    /**
+     * Finds all the inline (and block) boxes with the given element name.
+     * @param name the element name
+     * @param case_sensitive whether the name comparison is case sensitive
+     * @return the list of the boxes in the document order or <code>null</code> when the viewport is empty
+     */
     public ArrayList<InlineBox> getInlineBoxesByName(String name, boolean case_sensitive)
     {
-    	ArrayList<InlineBox> boxes = new ArrayList<InlineBox>();
         if (rootBox == null)
             return null;
-        else
-        	recursiveFindInlineBoxesByName((InlineBox)rootBox, name, case_sensitive, boxes);
-        return boxes;
-    }
-    
-    private void recursiveFindInlineBoxesByName(InlineBox ebox, String name, boolean case_sensitive, ArrayList<InlineBox> boxes) {
-		boolean eq;
-        if (case_sensitive)
-            eq = ebox.getElement().getTagName().equals(name);
-        else
-            eq = ebox.getElement().getTagName().equalsIgnoreCase(name);
-        
-        if (eq)
-            boxes.add(ebox);
-        else
+        ArrayList<InlineBox> boxes = new ArrayList<InlineBox>();
+        for (ElementBox box : factory.getElementBoxes(name))
         {
-        	InlineBox ret = null;
-            for (int i = 0; i < ebox.getSubBoxNumber() && ret == null; i++)
-            {
-                Box child = ebox.getSubBox(i);
-                if (child instanceof InlineBox)
-                	recursiveFindInlineBoxesByName((InlineBox) child, name, case_sensitive, boxes);
-            }
+            if (box instanceof InlineBox && (!case_sensitive || box.getElement().getTagName().equals(name)))
+                boxes.add((InlineBox) box);
         }
-        
-	}
+        return boxes;
+    }
     
-	private void recursiveFindElementsBoxByName(ElementBox ebox, String name, boolean case_sensitive, ArrayList<ElementBox> boxes) {
-		boolean eq;
-        if (case_sensitive)
-            eq = ebox.getElement().getTagName().equals(name);
-        else
-            eq = ebox.getElement().getTagName().equalsIgnoreCase(name);
-        
-        if (eq)
-            boxes.add(ebox);
-        else
-        {
-            ElementBox ret = null;
-            for (int i = 0; i < ebox.getSubBoxNumber() && ret == null; i++)
-            {
-                Box child = ebox.getSubBox(i);
-                if (child instanceof ElementBox)
-                    recursiveFindElementsBoxByName((ElementBox) child, name, case_sensitive, boxes);
-            }
-        }
-        
-	}
-
 	@Override
     public void addSubBox(Box box)
     {
@@ -310,8 +303,246 @@ public class Viewport extends BlockBox
 	    absbounds = new Rectangle(bounds);
 		for (int i = 0; i < getSubBoxNumber(); i++)
 			getSubBox(i).absolutePositions();
+		boxIndex = null; //the positions have changed
     }
 	
+	/**
+	 * Obtains the spatial index of the boxes for locating the boxes on the page. The index is
+	 * created on the first call after the absolute positions have been computed.
+	 * @return the box index
+	 */
+	public BoxIndex getBoxIndex()
+	{
+	    BoxIndex ret = boxIndex;
+	    if (ret == null)
+	    {
+	        ret = new BoxIndex(this);
+	        boxIndex = ret;
+	    }
+	    return ret;
+	}
+	
+	/**
+	 * @return the canvas that displays the viewport or <code>null</code> when not known
+	 */
+	public BrowserCanvas getCanvas()
+	{
+	    return canvas;
+	}
+	
+	/**
+	 * Sets the canvas that displays the viewport. The canvas is notified when the contents
+	 * of the boxes change.
+	 * @param canvas the canvas
+	 */
+	public void setCanvas(BrowserCanvas canvas)
+	{
+	    this.canvas = canvas;
+	}
+	
+	/**
+	 * @return <code>true</code> when the independent subtrees are laid out in parallel
+	 */
+	public boolean isParallelLayout()
+	{
+	    return parallelLayout;
+	}
+	
+	/**
+	 * Enables or disables the parallel layout. When enabled, the table cells and the absolutely
+	 * positioned blocks are laid out in parallel using {@link ParallelLayout}. The resulting
+	 * layout is the same as the serial one.
+	 * @param parallelLayout <code>true</code> for the parallel layout
+	 */
+	public void setParallelLayout(boolean parallelLayout)
+	{
+	    this.parallelLayout = parallelLayout;
+	}
+	
+	/**
+	 * Requests redrawing a box whose contents have changed, e.g. when an image has been loaded.
+	 * The box is redrawn later in the event dispatch thread, so that this method may be called
+	 * from any thread. Nothing is done when the viewport is not being displayed.
+	 * @param box the box to be redrawn
+	 */
+	public void redrawBox(final Box box)
+	{
+	    final BrowserCanvas c = canvas;
+	    if (c != null)
+	    {
+	        SwingUtilities.invokeLater(new Runnable() {
+	            public void run()
+	            {
+	                if (c.getViewport() == Viewport.this)
+	                    c.redrawArea(box.getAbsoluteBounds());
+	            }
+	        });
+	    }
+	}
+	
+	/**
+	 * Requests updating the layout after the intrinsic size of a replaced box has changed.
+	 * The changes are collected and the layout is updated later in the event dispatch thread,
+	 * so that this method may be called from any thread. Nothing is done when the viewport
+	 * is not being displayed.
+	 * @param box the changed replaced box
+	 */
+	public void reflowBox(ElementBox box)
+	{
+	    BrowserCanvas c = canvas;
+	    if (c != null)
+	        c.scheduleReflow(this, box);
+	}
+	
+	/**
+	 * Updates the layout after the intrinsic size of some replaced boxes has changed. The boxes
+	 * whose size is given by the attributes or the style are not affected. For the remaining ones,
+	 * the nearest floating or positioned ancestor is laid out again. When its size changes,
+	 * the next such ancestor is tried, until the change has no effect on the rest of the page.
+	 * A box in the normal flow has no such ancestor, any change of its size requires laying out
+	 * the whole box tree again.
+	 * @param boxes the replaced boxes whose intrinsic size has changed
+	 * @return the area of the page that has changed (possibly empty) or <code>null</code> when
+	 * the whole page must be laid out again
+	 */
+	public Rectangle reflow(Collection<ElementBox> boxes)
+	{
+	    Rectangle area = new Rectangle();
+	    for (ElementBox box : boxes)
+	    {
+	        if (box.getViewport() == this && box.isDisplayed()
+	                && box instanceof ReplacedBox && ((ReplacedBox) box).isSizeChanged())
+	        {
+	            //the ancestors that may be laid out separately and their sizes before the change
+	            List<BlockBox> roots = new ArrayList<BlockBox>();
+	            List<int[]> sizes = new ArrayList<int[]>();
+	            for (ElementBox b = box; b != null && b != this; b = b.getParent())
+	            {
+	                if (b instanceof BlockBox && b.isDisplayed() && !b.isInFlow())
+	                {
+	                    roots.add((BlockBox) b);
+	                    sizes.add(getLayoutSize(b));
+	                }
+	            }
+	            
+	            boolean contained = false;
+	            for (int i = 0; i < roots.size() && !contained; i++)
+	            {
+	                BlockBox root = roots.get(i);
+	                int ex = maxx;
+	                int ey = maxy;
+	                Rectangle before = getSubtreeBounds(root, null);
+	                root.layoutIndependently();
+	                Rectangle after = getSubtreeBounds(root, null);
+	                //the page cannot shrink without laying out everything
+	                if ((before.x + before.width > after.x + after.width && before.x + before.width > ex)
+	                        || (before.y + before.height > after.y + after.height && before.y + before.height > ey))
+	                    return null;
+	                addArea(area, before);
+	                addArea(area, after);
+	                //the positioned boxes do not affect the other boxes
+	                contained = root.isPositioned() || Arrays.equals(sizes.get(i), getLayoutSize(root));
+	            }
+	            if (!contained)
+	                return null;
+	        }
+	    }
+	    
+	    if (!area.isEmpty())
+	    {
+	        boxIndex = null; //the positions have changed
+	        if (width < maxx || height < maxy)
+	        {
+	            if (width < maxx) width = maxx;
+	            if (height < maxy) height = maxy;
+	            loadSizes();
+	        }
+	    }
+	    return area;
+	}
+	
+	/**
+	 * Obtains the properties of a box that influence the layout of the surrounding boxes.
+	 */
+	private int[] getLayoutSize(ElementBox box)
+	{
+	    return new int[] {box.getWidth(), box.getHeight(), box.getMinimalWidth(), box.getMaximalWidth()};
+	}
+	
+	/**
+	 * Computes the area occupied by the displayed boxes of a subtree.
+	 */
+	private Rectangle getSubtreeBounds(Box box, Rectangle ret)
+	{
+	    if (box.isDisplayed())
+	    {
+	        if (ret == null)
+	            ret = new Rectangle(box.getAbsoluteBounds());
+	        else
+	            addArea(ret, box.getAbsoluteBounds());
+	        if (box instanceof ElementBox)
+	        {
+	            ElementBox el = (ElementBox) box;
+	            for (int i = 0; i < el.getSubBoxNumber(); i++)
+	                getSubtreeBounds(el.getSubBox(i), ret);
+	        }
+	    }
+	    return (ret == null) ? new Rectangle() : ret;
+	}
+	
+	private void addArea(Rectangle area, Rectangle r)
+	{
+	    if (r.isEmpty())
+	        return;
+	    else if (area.isEmpty())
+	        area.setBounds(r);
+	    else
+	        area.add(r);
+	}
+	
+	/**
+	 * Draws the boxes that intersect the given area only. The subtrees that lie completely
+	 * outside of the area (according to the box index) are not traversed at all and the remaining
+	 * boxes skip their own backgrounds and contents when they miss the area, so that drawing
+	 * a small part of a long page does not cost as much as drawing the whole page.
+	 * @param g graphics context to draw on
+	 * @param area the area of the page to be drawn (absolute coordinates)
+	 */
+	public void draw(Graphics2D g, Rectangle area)
+	{
+	    drawIndex = getBoxIndex();
+	    drawArea = area;
+	    try {
+	        draw(g);
+	    } finally {
+	        drawArea = null;
+	        drawIndex = null;
+	    }
+	}
+	
+	/**
+	 * Checks whether the given area has to be drawn in the current drawing pass.
+	 * @param r the area (absolute coordinates)
+	 * @return <code>false</code> when only a part of the page is being drawn and the area lies outside of it
+	 */
+	public boolean isInDrawArea(Rectangle r)
+	{
+	    Rectangle area = drawArea;
+	    return area == null || area.intersects(r);
+	}
+	
+	/**
+	 * Checks whether any box of the given subtree has to be drawn in the current drawing pass.
+	 * @param box the root box of the subtree
+	 * @return <code>false</code> when only a part of the page is being drawn and the whole subtree lies outside of it
+	 */
+	public boolean isSubtreeInDrawArea(Box box)
+	{
+	    Rectangle area = drawArea;
+	    BoxIndex index = drawIndex;
+	    return area == null || index == null || index.intersectsSubtree(box, area);
+	}
+	
 	@Override
 	public void draw(Graphics2D g, int turn, int mode) 
 	{
@@ -332,55 +563,17 @@ public class Viewport extends BlockBox
 	
     //===================================================================================
     
-    private ElementBox recursiveFindElementBoxByName(ElementBox ebox, String name, boolean case_sensitive)
-    {
-        boolean eq;
-        if (case_sensitive)
-            eq = ebox.getElement().getTagName().equals(name);
-        else
-            eq = ebox.getElement().getTagName().equalsIgnoreCase(name);
-        
-        if (eq)
-            return ebox;
-        else
-        {
-            ElementBox ret = null;
-            for (int i = 0; i < ebox.getSubBoxNumber() && ret == null; i++)
-            {
-                Box child = ebox.getSubBox(i);
-                if (child instanceof ElementBox)
-                    ret = recursiveFindElementBoxByName((ElementBox) child, name, case_sensitive);
-            }
-            return ret;
-        }
-    }
-
+	/**
+	 * Finds the element box that corresponds to a DOM node.
+	 * @param node the DOM node
+	 * @return the element box or <code>null</code> when no box has been created for the node
+	 */
 	public Box getElementBoxByNode(Node node) {
 	    if (rootBox == null)
 	        return null;
 	    else
-	        return recursiveFindElementBoxByNode(rootBox, node);
+	        return factory.getElementBox(node);
 	}
-	
-    private ElementBox recursiveFindElementBoxByNode(ElementBox ebox, Node node)
-    {
-        boolean eq;
-            eq = ebox.getNode() == node;
-        
-        if (eq)
-            return ebox;
-        else
-        {
-            ElementBox ret = null;
-            for (int i = 0; i < ebox.getSubBoxNumber() && ret == null; i++)
-            {
-                Box child = ebox.getSubBox(i);
-                if (child instanceof ElementBox)
-                    ret = recursiveFindElementBoxByNode((ElementBox) child, node);
-            }
-            return ret;
-        }
-    }
     
     
 }
@@ -39,7 +39,7 @@ public class VisualContext
 {
     private VisualContext parent;
     private Font font; //current font
-    private FontMetrics fm; //current font metrics
+    private FontCache.Metrics fm; //current font metrics
     private CSSProperty.FontWeight fontWeight;
     private CSSProperty.FontStyle fontStyle;
     private CSSProperty.FontVariant fontVariant;
@@ -50,10 +50,14 @@ public class VisualContext
     
     public Color color; //current text color
     
+    private boolean updated; //the context has been updated by a style
+    private NodeData appliedStyle; //the style used by the last update
+    private VisualContext lastChild; //the last child context updated by a style
+    
     public VisualContext(VisualContext parent)
     {
         this.parent = parent;
-        font = new Font("Serif", Font.PLAIN, (int)((CSSUnits.medium_font * 72) / dpi)); //convert medium font to pixels
+        font = FontCache.getFont("Serif", Font.PLAIN, (int)((CSSUnits.medium_font * 72) / dpi)); //convert medium font to pixels
         fontWeight = CSSProperty.FontWeight.NORMAL;
         fontStyle = CSSProperty.FontStyle.NORMAL;
         fontVariant = CSSProperty.FontVariant.NORMAL;
@@ -64,13 +68,27 @@ public class VisualContext
         color = Color.BLACK;
     }
     
+    /**
+     * Creates an empty context, the values are filled by {@link #create()}.
+     */
+    private VisualContext()
+    {
+    }
+    
+    /**
+     * Creates a child context with the same values. The font and its metrics are shared
+     * with this context.
+     * @return the new context
+     */
     public VisualContext create()
     {
-        VisualContext ret = new VisualContext(this);
+        VisualContext ret = new VisualContext();
+        ret.parent = this;
         ret.em = em;
         ret.ex = ex;
         ret.dpi = dpi;
         ret.font = font;
+        ret.fm = fm;
         ret.fontWeight = fontWeight;
         ret.fontStyle = fontStyle;
         ret.fontVariant = fontVariant;
@@ -176,6 +194,11 @@ public class VisualContext
      */
     public void update(NodeData style)
     {
+        //the children created before are not equal to the new children any more
+        lastChild = null;
+        appliedStyle = null;
+        updated = true;
+        
         //setup the font
         String family;
         TermList fmlspec = style.getValue(TermList.class, "font-family");
@@ -213,7 +236,7 @@ public class VisualContext
         if (fontStyle == CSSProperty.FontStyle.ITALIC || fontStyle == CSSProperty.FontStyle.OBLIQUE)
             fs = fs | Font.ITALIC;
         
-        font = new Font(family, fs, (int) Math.round(size));
+        font = FontCache.getFont(family, fs, (int) Math.round(size));
         em = size;
         
         CSSProperty.FontVariant variant = style.getProperty("font-variant");
@@ -260,10 +283,36 @@ public class VisualContext
      */
     public void updateForGraphics(NodeData style, Graphics2D g)
     {
-        if (style != null) update(style);
+        if (style != null)
+        {
+            //the siblings sharing the same style obtain the same values
+            VisualContext sibling = (parent == null) ? null : parent.lastChild;
+            if (!updated && sibling != null && sibling != this && sibling.appliedStyle == style)
+                copyStyle(sibling);
+            else
+                update(style);
+            updated = true;
+            appliedStyle = style;
+            if (parent != null)
+                parent.lastChild = this;
+        }
         updateGraphics(g);
-        fm = g.getFontMetrics();
-        ex = (int) (fm.getHeight() * 0.6); //em has been updated in update()
+        fm = FontCache.getMetrics(font, g);
+        ex = fm.ex; //em has been updated in update()
+    }
+    
+    /**
+     * Copies the values computed from a style by a sibling context created from the same parent.
+     */
+    private void copyStyle(VisualContext src)
+    {
+        font = src.font;
+        em = src.em;
+        fontWeight = src.fontWeight;
+        fontStyle = src.fontStyle;
+        fontVariant = src.fontVariant;
+        textDecoration = new ArrayList<CSSProperty.TextDecoration>(src.textDecoration);
+        color = src.color;
     }
     
     
@@ -275,7 +324,7 @@ public class VisualContext
      */
     public int getFontHeight()
     {
-        return fm.getHeight();
+        return fm.height;
     }
     
     /**
@@ -285,7 +334,18 @@ public class VisualContext
      */
     public int getBaselineOffset()
     {
-        return fm.getMaxAscent();
+        return fm.maxAscent;
+    }
+    
+    /**
+     * Obtains the metrics of the current font. Unlike the metrics obtained from a graphics
+     * context, they don't depend on the current state of any graphics context so that they
+     * may be used during the layout from any thread.
+     * @return the font metrics
+     */
+    public FontMetrics getFontMetrics()
+    {
+        return fm.fm;
     }
     
     /** 
@@ -439,7 +499,6 @@ public class VisualContext
      */
     public String getFontName(TermList list)
     {
-        String avail[] = GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
         for (Term<?> term : list)
         {
             Object value = term.getValue();
@@ -447,7 +506,7 @@ public class VisualContext
                 return ((CSSProperty.FontFamily) value).getAWTValue();
             else
             {
-                String name = fontAvailable(value.toString(), avail);
+                String name = FontCache.getAvailableFamily(value.toString());
                 if (name != null) return name;
             }
         }
@@ -455,16 +514,6 @@ public class VisualContext
         return "Serif";
     }
     
-    /** Returns true if the font family is available.
-     * @return The exact name of the font family or null if it's not available
-     */
-    private String fontAvailable(String family, String[] avail)
-    {
-        for (int i = 0; i < avail.length; i++)
-            if (avail[i].equalsIgnoreCase(family)) return avail[i];
-        return null;
-    }
-    
     /**
      * Creates a new java Color instance according to a CSS specification rgb(r,g,b)
      * @param spec the CSS color specification